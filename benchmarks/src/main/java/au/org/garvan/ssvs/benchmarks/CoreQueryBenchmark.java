@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.benchmarks;
+
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.Format;
+import au.org.garvan.ssvs.core.util.CoreQueryUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parameters to a canonical {@link CoreQuery}: chromosome, dataset, sortBy and allele lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreQueryBenchmark {
+
+    @Param({"1", "chr22", "X"})
+    public String chromosome;
+
+    @Benchmark
+    public CoreQuery region() {
+        return CoreQueryUtils.getCoreQuery("mgrb", chromosome, 100000, 200000, null, null, 100, 0, null, false, null,
+                                           false, false, false, Format.JSON, "Bearer x.y.z");
+    }
+
+    @Benchmark
+    public CoreQuery annotatedSorted() {
+        return CoreQueryUtils.getCoreQuery("MGRB", chromosome, 100000, 200000, "t", "c", 1000, 10, null, true, "gnomadAF",
+                                           true, true, false, null, "Bearer x.y.z");
+    }
+}
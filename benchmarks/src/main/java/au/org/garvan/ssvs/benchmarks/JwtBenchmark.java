@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.benchmarks;
+
+import au.org.garvan.ssvs.core.util.CoreJWT;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CoreJWT#verifyJWT} with a locally generated RSA key served by a JWKS stub. {@code cached} repeats one
+ * token, {@code fresh} signs a new token per call, so the signature is checked every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String ISSUER = "https://ssvs.bench/";
+    private static final String CLAIM = "https://ssvs.bench/permissions";
+    private static final String ACCESS = "mgrb/summary";
+
+    private HttpServer jwks;
+    private Algorithm algorithm;
+    private String token;
+    private long serial;
+
+    @Setup
+    public void setup() throws IOException, NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        RSAPublicKey pub = (RSAPublicKey) keys.getPublic();
+        algorithm = Algorithm.RSA256(pub, (RSAPrivateKey) keys.getPrivate());
+
+        byte[] body = ("{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"bench\",\"use\":\"sig\",\"alg\":\"RS256\"," +
+                       "\"n\":\"" + base64(pub.getModulus()) + "\",\"e\":\"" + base64(pub.getPublicExponent()) + "\"}]}")
+                      .getBytes(StandardCharsets.UTF_8);
+        jwks = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        jwks.createContext("/jwks.json", ex -> {
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        jwks.start();
+
+        // read by ReadConfig when CoreJWT is first used in this fork
+        System.setProperty("vsal.jwtIssuer", ISSUER);
+        System.setProperty("vsal.jwtAccessClaim", CLAIM);
+        System.setProperty("vsal.jwksUrl", "http://localhost:" + jwks.getAddress().getPort() + "/jwks.json");
+
+        token = sign();
+    }
+
+    @TearDown
+    public void tearDown() {
+        jwks.stop(0);
+    }
+
+    @Benchmark
+    public void cached() {
+        CoreJWT.verifyJWT(token, ACCESS);
+    }
+
+    @Benchmark
+    public void fresh() {
+        CoreJWT.verifyJWT(sign(), ACCESS);
+    }
+
+    private String sign() {
+        return JWT.create()
+            .withKeyId("bench")
+            .withIssuer(ISSUER)
+            .withArrayClaim(CLAIM, new String[]{ACCESS})
+            .withJWTId(Long.toString(serial++))
+            .withExpiresAt(new Date(System.currentTimeMillis() + 3600000))
+            .sign(algorithm);
+    }
+
+    private static String base64(BigInteger n) {
+        byte[] b = n.toByteArray();
+        if (b[0] == 0)
+            b = Arrays.copyOfRange(b, 1, b.length); // unsigned
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+    }
+}
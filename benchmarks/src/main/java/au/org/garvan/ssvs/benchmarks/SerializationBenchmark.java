@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.benchmarks;
+
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.CoreResponse;
+import au.org.garvan.ssvs.core.entity.Format;
+import au.org.garvan.ssvs.core.entity.Variant;
+import au.org.garvan.ssvs.core.util.CoreQueryUtils;
+import au.org.garvan.ssvs.core.util.VariantWriter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CoreResponse} envelopes as the REST layer writes them: JSON with Jackson, XML with JAXB, and the same rows
+ * streamed as protobuf and Arrow. The read* benchmarks are the client side, decoding every value of a response.
+ * Arrow on JDK 16+ needs java.nio opened to its memory module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.nio=ALL-UNNAMED"})
+public class SerializationBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rows;
+
+    private CoreResponse response;
+    private List<Variant> variants;
+    private ObjectWriter json;
+    private ObjectMapper mapper;
+    private JAXBContext jaxb;
+    private BufferAllocator allocator;
+    private byte[] jsonBytes;
+    private byte[] protobufBytes;
+    private byte[] arrowBytes;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setup() throws JAXBException {
+        CoreQuery q = CoreQueryUtils.getCoreQuery("mgrb", "1", 0, Integer.MAX_VALUE, null, null, rows, 0, null, true, null,
+                                                  false, false, false, Format.JSON, null);
+        variants = Synthetic.variants(rows);
+        response = new CoreResponse(q, 1L, variants, (long) rows, null);
+        mapper = new ObjectMapper();
+        json = mapper.writerFor(CoreResponse.class);
+        jaxb = JAXBContext.newInstance(CoreResponse.class);
+        allocator = new RootAllocator();
+
+        try {
+            json();
+            jsonBytes = out.toByteArray();
+            protobuf();
+            protobufBytes = out.toByteArray();
+            arrow();
+            arrowBytes = out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        allocator.close();
+    }
+
+    @Benchmark
+    public int json() throws IOException {
+        out.reset();
+        json.writeValue(out, response);
+        return out.size();
+    }
+
+    @Benchmark
+    public int xml() throws JAXBException {
+        out.reset();
+        Marshaller m = jaxb.createMarshaller(); // per request, as JAX-RS providers do
+        m.marshal(response, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int protobuf() throws IOException {
+        return stream(Format.PROTOBUF);
+    }
+
+    @Benchmark
+    public int arrow() throws IOException {
+        return stream(Format.ARROW);
+    }
+
+    private int stream(Format format) throws IOException {
+        out.reset();
+        VariantWriter writer = VariantWriter.create(format, true, out);
+        writer.begin();
+        for (Variant v : variants)
+            writer.write(v);
+        writer.end();
+        return out.size();
+    }
+
+    @Benchmark
+    public int readJson() throws IOException {
+        JsonNode tree = mapper.readTree(jsonBytes);
+        return tree.get("variants").size();
+    }
+
+    @Benchmark
+    public int readProtobuf() throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(protobufBytes);
+        int values = 0;
+        while (!in.isAtEnd()) {
+            int limit = in.pushLimit(in.readRawVarint32());
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (WireFormat.getTagWireType(tag)) {
+                    case WireFormat.WIRETYPE_VARINT:           in.readInt32(); break;
+                    case WireFormat.WIRETYPE_FIXED64:          in.readDouble(); break;
+                    case WireFormat.WIRETYPE_FIXED32:          in.readFloat(); break;
+                    case WireFormat.WIRETYPE_LENGTH_DELIMITED: in.readStringRequireUtf8(); break;
+                    default:                                   in.skipField(tag);
+                }
+                values++;
+            }
+            in.popLimit(limit);
+        }
+        return values;
+    }
+
+    @Benchmark
+    public int readArrow() throws IOException {
+        int values = 0;
+        try (ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(arrowBytes), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                for (FieldVector vector : root.getFieldVectors()) {
+                    DictionaryEncoding encoding = vector.getField().getDictionary();
+                    FieldVector dictionary = (encoding == null) ? null : reader.lookup(encoding.getId()).getVector();
+                    for (int i = 0; i < root.getRowCount(); i++) {
+                        Object value = vector.getObject(i);
+                        if (value != null && dictionary != null)
+                            value = dictionary.getObject((Integer) value);
+                        if (value != null)
+                            values++;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.benchmarks;
+
+import au.org.garvan.ssvs.core.dao.impl.SummStatsJPA2Impl;
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.Cursor;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.Field;
+import au.org.garvan.ssvs.core.entity.FilterParams;
+import au.org.garvan.ssvs.core.entity.Variant;
+import au.org.garvan.ssvs.core.entity.VariantFilter;
+import au.org.garvan.ssvs.core.util.CoreQueryUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SummStatsJPA2Impl} queries against an in-memory H2 summstats table with the production indexes.
+ * The numbers are only comparable between runs of this benchmark, not with MySQL. {@code stream} isn't covered,
+ * H2 rejects the MySQL streaming fetch size it sets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SummStatsJpaBenchmark {
+
+    private static final int VARIANTS = 200000;
+    private static final String URL = "jdbc:h2:mem:summstats;DB_CLOSE_DELAY=-1";
+
+    @Param({"100", "1000"})
+    public int limit;
+
+    private Connection keepAlive;
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private SummStatsJPA2Impl dao;
+    private Cursor middle;
+    private VariantFilter rare;
+
+    @Setup
+    public void setup() throws Exception {
+        keepAlive = DriverManager.getConnection(URL, "sa", "");
+        Synthetic.load(keepAlive, VARIANTS);
+
+        emf = Persistence.createEntityManagerFactory("SummStatsBenchmark");
+        em = emf.createEntityManager();
+        dao = new SummStatsJPA2Impl();
+        java.lang.reflect.Field pc = SummStatsJPA2Impl.class.getDeclaredField("entityManager");
+        pc.setAccessible(true);
+        pc.set(dao, em);
+
+        List<Variant> page = dao.q(DatasetID.DEMO, Chromosome.CHR1, 0, Integer.MAX_VALUE, 1, VARIANTS / 2, null, null);
+        middle = new Cursor(Chromosome.CHR1, page.get(0).getStart(), page.get(0).getV());
+
+        FilterParams params = new FilterParams();
+        params.gnomadAF = ":0.01";
+        params.consequences = "missense";
+        rare = CoreQueryUtils.getFilter(params);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        em.close();
+        emf.close();
+        keepAlive.close();
+    }
+
+    @Benchmark
+    public List<Variant> shortRegion() {
+        em.clear();
+        return dao.q(DatasetID.DEMO, Chromosome.CHR1, 500000, 1500000, limit, 0, null, null);
+    }
+
+    @Benchmark
+    public List<Variant> annotatedRegion() {
+        em.clear();
+        return dao.query(DatasetID.DEMO, Chromosome.CHR1, 500000, 1500000, limit, 0, null, null, null, false);
+    }
+
+    @Benchmark
+    public List<Variant> annotatedSorted() {
+        em.clear();
+        return dao.query(DatasetID.DEMO, Chromosome.CHR1, 500000, 1500000, limit, 0, null, null, Field.FIELD18, true);
+    }
+
+    @Benchmark
+    public List<Variant> cursorPage() {
+        em.clear();
+        return dao.q(DatasetID.DEMO, Chromosome.CHR1, 0, Integer.MAX_VALUE, limit, 0, middle, null);
+    }
+
+    @Benchmark
+    public List<Variant> offsetPage() {
+        em.clear();
+        return dao.q(DatasetID.DEMO, Chromosome.CHR1, 0, Integer.MAX_VALUE, limit, VARIANTS / 2, null, null);
+    }
+
+    @Benchmark
+    public List<Variant> annotatedFiltered() {
+        em.clear();
+        return dao.query(DatasetID.DEMO, Chromosome.CHR1, 500000, 1500000, limit, 0, null, rare, null, false);
+    }
+
+    @Benchmark
+    public Long count() {
+        return dao.count(DatasetID.DEMO, Chromosome.CHR1, 500000, 1500000, null);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.benchmarks;
+
+import au.org.garvan.ssvs.core.entity.Variant;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic variants, roughly one every 10 bp of chromosome 1.
+ */
+final class Synthetic {
+
+    private static final String[] BASES = {"A", "C", "G", "T"};
+
+    private Synthetic() {
+    }
+
+    static List<Variant> variants(int n) {
+        Random rnd = new Random(42);
+        List<Variant> variants = new ArrayList<>(n);
+        int start = 10000;
+        for (int i = 0; i < n; ++i) {
+            start += 1 + rnd.nextInt(20);
+            int r = rnd.nextInt(4);
+            String ref = BASES[r];
+            String alt = BASES[(r + 1 + rnd.nextInt(3)) % 4];
+            int nHet = rnd.nextInt(200);
+            int nHomVar = rnd.nextInt(20);
+            float gnomad = rnd.nextFloat() / 10;
+            variants.add(new Variant("1-" + start + "-" + ref + "-" + alt, "1", start, ref, alt, "rs" + (100000 + i),
+                nHet + 2 * nHomVar, rnd.nextDouble() / 10, 4000 - nHet - nHomVar, nHet, nHomVar, "SNV", "0.0", "0.1",
+                "tolerated", "benign", gnomad, gnomad, gnomad, gnomad, gnomad, gnomad, gnomad, gnomad, gnomad,
+                "ENSG00000" + (i % 100000), "missense_variant", "GENE" + (i % 1000), null, "no"));
+        }
+        return variants;
+    }
+
+    /**
+     * Creates the summstats table with the production indexes and fills it with {@code n} variants.
+     */
+    static void load(Connection c, int n) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE summstats (VARIANT VARCHAR(255) PRIMARY KEY, CHROMOSOME VARCHAR(8), START INT, " +
+                "REF VARCHAR(255), ALT VARCHAR(255), RSID VARCHAR(32), AC INT, AF DOUBLE, nHomRef INT, nHet INT, " +
+                "nHomVar INT, TYPE VARCHAR(16), CATO VARCHAR(16), eigen VARCHAR(16), sift VARCHAR(32), polyPhen VARCHAR(32), " +
+                "hrcAF REAL, gnomadAF REAL, gnomadAF_AFR REAL, gnomadAF_AMR REAL, gnomadAF_ASJ REAL, gnomadAF_EAS REAL, " +
+                "gnomadAF_FIN REAL, gnomadAF_NFE REAL, gnomadAF_OTHD REAL, ensemblId VARCHAR(32), consequences VARCHAR(255), " +
+                "geneSymbol VARCHAR(32), clinvar VARCHAR(255), wasSplit VARCHAR(8))");
+            st.execute("CREATE INDEX idx_summstats_chr_start ON summstats (CHROMOSOME, START, VARIANT)");
+        }
+
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO summstats VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+                                                       "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int batch = 0;
+            for (Variant v : variants(n)) {
+                int i = 0;
+                ps.setString(++i, v.getV());
+                ps.setString(++i, v.getChr());
+                ps.setInt(++i, v.getStart());
+                ps.setString(++i, v.getRef());
+                ps.setString(++i, v.getAlt());
+                ps.setString(++i, v.getRsid());
+                ps.setInt(++i, v.getAc());
+                ps.setDouble(++i, v.getAf());
+                ps.setInt(++i, v.getnHomRef());
+                ps.setInt(++i, v.getnHet());
+                ps.setInt(++i, v.getnHomVar());
+                ps.setString(++i, v.getType());
+                ps.setString(++i, v.getCato());
+                ps.setString(++i, v.getEigen());
+                ps.setString(++i, v.getSift());
+                ps.setString(++i, v.getPolyPhen());
+                ps.setFloat(++i, v.getHrcAF());
+                ps.setFloat(++i, v.getGnomadAF());
+                ps.setFloat(++i, v.getGnomadAF_AFR());
+                ps.setFloat(++i, v.getGnomadAF_AMR());
+                ps.setFloat(++i, v.getGnomadAF_ASJ());
+                ps.setFloat(++i, v.getGnomadAF_EAS());
+                ps.setFloat(++i, v.getGnomadAF_FIN());
+                ps.setFloat(++i, v.getGnomadAF_NFE());
+                ps.setFloat(++i, v.getGnomadAF_OTHD());
+                ps.setString(++i, v.getEnsemblId());
+                ps.setString(++i, v.getConsequences());
+                ps.setString(++i, v.getGeneSymbol());
+                ps.setString(++i, v.getClinvar());
+                ps.setString(++i, v.getWasSplit());
+                ps.addBatch();
+                if (++batch % 10000 == 0)
+                    ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+-- Indexes backing SSVS queries on the summstats table.
+-- Apply after a bulk load: mysql summstats < summstats-indexes.sql
+
+-- region scans and keyset pagination: WHERE CHROMOSOME = ? AND START BETWEEN ? AND ?
+-- ORDER BY START, VARIANT seeks on (START, VARIANT) > (?, ?) without a filesort
+CREATE INDEX idx_summstats_chr_start ON summstats (CHROMOSOME, START, VARIANT);
+
+-- single variant lookups: WHERE CHROMOSOME = ? AND START = ? AND REF = ? AND ALT = ? is a point read;
+-- prefixes keep long indels within the key length limit, equality still narrows to the variant
+CREATE INDEX idx_summstats_chr_start_alleles ON summstats (CHROMOSOME, START, REF(64), ALT(64));
+
+-- dbSNP id queries: WHERE RSID IN (...), O(log n) per id instead of a table scan
+CREATE INDEX idx_summstats_rsid ON summstats (RSID);
+
+-- variant filters (af, gnomadAF, type) inside a region: the filter columns follow START, so index condition
+-- pushdown rejects non-matching rows in the index before any row is read
+CREATE INDEX idx_summstats_chr_start_filter ON summstats (CHROMOSOME, START, gnomadAF, AF, TYPE);
+
+-- variant type of a region, e.g. type=SNV over a whole chromosome
+CREATE INDEX idx_summstats_chr_type_start ON summstats (CHROMOSOME, TYPE, START);
+
+-- gene panels: WHERE CHROMOSOME = ? AND geneSymbol = ? AND START BETWEEN ? AND ?
+CREATE INDEX idx_summstats_gene_start ON summstats (geneSymbol, CHROMOSOME, START);
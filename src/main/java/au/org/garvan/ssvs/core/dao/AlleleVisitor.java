@@ -23,30 +23,12 @@
  * SOFTWARE.
  */
 
-package au.org.garvan.ssvs.core.entity;
+package au.org.garvan.ssvs.core.dao;
 
-public enum Allele {
-    A("A"), T("T"), G("G"), C("C"), None("None");
-
-    private final String allele;
-
-    Allele(String allele) {
-        this.allele = allele;
-    }
-
-    public static Allele fromString(String text) {
-        if (text != null) {
-            for (Allele a : Allele.values()) {
-                if (text.equalsIgnoreCase(a.toString())) {
-                    return a;
-                }
-            }
-        }
-        return None;
-    }
-//
-//    @Override
-//    public String toString() {
-//        return allele;
-//    }
-}
\ No newline at end of file
+/**
+ * Receives the alleles of every variant of a chromosome, see {@link SummStatsDao#alleles}.
+ */
+@FunctionalInterface
+public interface AlleleVisitor {
+    void visit(int start, String ref, String alt);
+}
@@ -28,10 +28,26 @@ package au.org.garvan.ssvs.core.dao;
 import au.org.garvan.ssvs.core.entity.*;
 
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Reads of one dataset's summary stats. Where a dataset lives (persistence unit, Kudu table, store directory) is up to
+ * the implementation and its configuration, see {@link SummStatsDaoRouter}.
+ */
 public interface SummStatsDao {
-    Long count(Chromosome chr, Integer start, Integer end);
-//    BeaconResponse beacon(Chromosome chr, Integer start, Allele allele);
-    List<Variant> q(Chromosome chr, Integer start, Integer end, Integer lim, Integer skip);
-    List<Variant> query(Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Field sortBy, Boolean desc);
+    Long count(DatasetID dataset, Chromosome chr, Integer start, Integer end, VariantFilter filter);
+    long[] binCounts(DatasetID dataset, Chromosome chr, int binSize);
+    List<DensityBin> density(DatasetID dataset, Chromosome chr, int start, int end, int binSize, boolean af);
+    boolean exists(DatasetID dataset, Chromosome chr, Integer start, String ref, String alt);
+    void alleles(DatasetID dataset, Chromosome chr, AlleleVisitor visitor);
+    List<Variant> lookup(DatasetID dataset, Chromosome chr, int[] starts);
+    List<Variant> rsids(DatasetID dataset, List<String> rsids);
+    List<Variant> q(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                    VariantFilter filter);
+    List<Variant> query(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                        VariantFilter filter, Field sortBy, Boolean desc);
+    void stream(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                VariantFilter filter, Field sortBy, Boolean desc, Boolean annot, Consumer<Variant> consumer);
+    void project(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                 VariantFilter filter, Field sortBy, Boolean desc, List<Field> fields, Consumer<Object[]> consumer);
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.dao;
+
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.ejb.EJB;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Picks the {@link SummStatsDao} implementation of a dataset: <i>backend.DATASET</i> or <i>backend</i>,
+ * one of <i>jpa</i> (default), <i>kudu</i> or <i>mmap</i>. Where the dataset lives within the backend is configured
+ * per dataset as well: <i>jpa.entityManager.DATASET</i> (persistence unit, hence datasource and schema),
+ * <i>kuduMaster.DATASET</i> and <i>kuduTable.DATASET</i>, or <i>mmapDir.DATASET</i>.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class SummStatsDaoRouter {
+
+    @EJB(beanName = "SummStatsJPA2Impl")
+    private SummStatsDao jpa;
+
+    @EJB(beanName = "SummStatsKuduImpl")
+    private SummStatsDao kudu;
+
+    @EJB(beanName = "SummStatsMmapImpl")
+    private SummStatsDao mmap;
+
+    public SummStatsDao get(DatasetID dataset) {
+        String backend = ReadConfig.getProp("backend", dataset, "jpa");
+        switch (backend.toLowerCase()) {
+            case "kudu":
+                return kudu;
+            case "mmap":
+                return mmap;
+            default:
+                return jpa;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.dao.impl;
+
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.Cursor;
+import au.org.garvan.ssvs.core.entity.Field;
+import au.org.garvan.ssvs.core.entity.Variant;
+import au.org.garvan.ssvs.core.util.Deadline;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * One chromosome of the read-only columnar store, memory mapped. Rows are sorted by (start, variant).
+ * <p>
+ * Files in {@code <dir>/<chr>/}, all big endian: {@code <field>.i32}, {@code <field>.f64} and {@code <field>.f32}
+ * for numbers (NaN is null), {@code <field>.codes} for strings with an int32 code per row (-1 is null) into
+ * {@code <field>.dict}: int32 n, int32 offsets[n + 1], UTF-8 bytes. {@code rsid.idx} is the rsID index, int64
+ * (id &lt;&lt; 32 | row) per dbSNP id of a row (rs123 is id 123), sorted. Written by {@link ColumnarStoreBuilder}.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+class ColumnarChromosome {
+
+    static final String INT = ".i32";
+    static final String DOUBLE = ".f64";
+    static final String FLOAT = ".f32";
+    static final String CODES = ".codes";
+    static final String DICT = ".dict";
+    static final String RSID_INDEX = "rsid.idx";
+
+    private final Chromosome chr;
+    private final int rows;
+    private final IntBuffer start;
+    private final Map<Field, IntBuffer> ints = new EnumMap<>(Field.class);
+    private final Map<Field, DoubleBuffer> doubles = new EnumMap<>(Field.class);
+    private final Map<Field, FloatBuffer> floats = new EnumMap<>(Field.class);
+    private final Map<Field, Dictionary> strings = new EnumMap<>(Field.class);
+    private final LongBuffer rsids;  // null in stores built without the index
+
+    private ColumnarChromosome(Chromosome chr, Path dir) throws IOException {
+        this.chr = chr;
+        for (Field f : Field.values()) {
+            if (f.getType() == Integer.class)
+                ints.put(f, map(dir.resolve(f + INT)).asIntBuffer());
+            else if (f.getType() == Double.class)
+                doubles.put(f, map(dir.resolve(f + DOUBLE)).asDoubleBuffer());
+            else if (f.getType() == Float.class)
+                floats.put(f, map(dir.resolve(f + FLOAT)).asFloatBuffer());
+            else
+                strings.put(f, new Dictionary(map(dir.resolve(f + CODES)).asIntBuffer(), map(dir.resolve(f + DICT))));
+        }
+        start = ints.get(Field.FIELD03);
+        rows = start.limit();
+        Path index = dir.resolve(RSID_INDEX);
+        rsids = Files.exists(index) ? map(index).asLongBuffer() : null;
+        if (rsids == null)
+            System.out.println("No " + index + ", rsID lookups on chr" + chr + " scan the column");
+    }
+
+    /**
+     * Maps the files of a chromosome, a chromosome without a directory has no rows.
+     */
+    static ColumnarChromosome open(Path store, Chromosome chr) throws IOException {
+        Path dir = store.resolve(chr.toString());
+        return Files.isDirectory(dir) ? new ColumnarChromosome(chr, dir) : null;
+    }
+
+    int size() {
+        return rows;
+    }
+
+    int start(int row) {
+        return start.get(row);
+    }
+
+    /**
+     * First row with start &gt;= pos.
+     */
+    int lowerBound(long pos) {
+        int lo = 0, hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start.get(mid) < pos)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Rows with dbSNP id rs{@code id}, a binary search of the rsID index.
+     */
+    void rsid(long id, IntConsumer consumer) {
+        if (rsids == null) {
+            for (int row = 0; row < rows; ++row) {
+                if ((row & 0xFFFF) == 0)
+                    Deadline.check();
+                for (long n : rsNumbers(str(Field.FIELD06, row)))
+                    if (n == id)
+                        consumer.accept(row);
+            }
+            return;
+        }
+
+        long key = id << 32;
+        int lo = 0, hi = rsids.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rsids.get(mid) < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for (; lo < rsids.limit() && (rsids.get(lo) >>> 32) == id; ++lo)
+            consumer.accept((int) rsids.get(lo));
+    }
+
+    /**
+     * dbSNP ids of an RSID value as numbers, a value may hold several separated by ';' or ','.
+     */
+    static long[] rsNumbers(String rsid) {
+        if (rsid == null)
+            return new long[0];
+        return Arrays.stream(rsid.split("[;,]"))
+            .map(String::trim)
+            .filter(rs -> rs.length() > 2 && rs.length() <= 12 && rs.regionMatches(true, 0, "rs", 0, 2) &&
+                          rs.substring(2).chars().allMatch(Character::isDigit))
+            .mapToLong(rs -> Long.parseLong(rs.substring(2)))
+            .filter(n -> n <= Integer.MAX_VALUE)
+            .toArray();
+    }
+
+    /**
+     * First row after a cursor key.
+     */
+    int after(Cursor c) {
+        int row = lowerBound(c.getStart());
+        while (row < rows && start.get(row) == c.getStart() && value(Field.FIELD01, row).toString().compareTo(c.getVariant()) <= 0)
+            ++row;
+        return row;
+    }
+
+    Object value(Field f, int row) {
+        if (f.getType() == Integer.class)
+            return ints.get(f).get(row);
+        if (f.getType() == Double.class) {
+            double d = doubles.get(f).get(row);
+            return Double.isNaN(d) ? null : d;
+        }
+        if (f.getType() == Float.class) {
+            float d = floats.get(f).get(row);
+            return Float.isNaN(d) ? null : d;
+        }
+        return strings.get(f).get(row);
+    }
+
+    /**
+     * Builds a {@link Variant} of a row, only the columns of the requested form are read.
+     */
+    Variant variant(int row, boolean annot) {
+        if (!annot)
+            return new Variant(str(Field.FIELD01, row), chr.toString(), start(row), str(Field.FIELD06, row),
+                               (Double) value(Field.FIELD08, row), num(Field.FIELD10, row), num(Field.FIELD11, row));
+
+        return new Variant(str(Field.FIELD01, row), chr.toString(), start(row), str(Field.FIELD04, row), str(Field.FIELD05, row),
+            str(Field.FIELD06, row), num(Field.FIELD07, row), (Double) value(Field.FIELD08, row), num(Field.FIELD09, row),
+            num(Field.FIELD10, row), num(Field.FIELD11, row), str(Field.FIELD12, row), str(Field.FIELD13, row),
+            str(Field.FIELD14, row), str(Field.FIELD15, row), str(Field.FIELD16, row), flt(Field.FIELD17, row),
+            flt(Field.FIELD18, row), flt(Field.FIELD19, row), flt(Field.FIELD20, row), flt(Field.FIELD21, row),
+            flt(Field.FIELD22, row), flt(Field.FIELD23, row), flt(Field.FIELD24, row), flt(Field.FIELD25, row),
+            str(Field.FIELD26, row), str(Field.FIELD27, row), str(Field.FIELD28, row), str(Field.FIELD29, row),
+            str(Field.FIELD30, row));
+    }
+
+    private String str(Field f, int row) {
+        return strings.get(f).get(row);
+    }
+
+    private int num(Field f, int row) {
+        return ints.get(f).get(row);
+    }
+
+    private Float flt(Field f, int row) {
+        return (Float) value(f, row);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // stays valid after close
+        }
+    }
+
+    /**
+     * Dictionary encoded string column.
+     */
+    private static class Dictionary {
+        private final IntBuffer codes;
+        private final IntBuffer offsets;
+        private final ByteBuffer bytes;
+
+        Dictionary(IntBuffer codes, ByteBuffer dict) {
+            this.codes = codes;
+            int n = dict.getInt(0);
+            this.offsets = slice(dict, 4, 4 + 4 * (n + 1)).asIntBuffer();
+            this.bytes = slice(dict, 4 + 4 * (n + 1), dict.limit());
+        }
+
+        /**
+         * Bytes [from, to) of a buffer. Positions are set through {@link Buffer}: the covariant ByteBuffer overloads
+         * javac picks on JDK 9+ don't exist on a Java 8 runtime.
+         */
+        private static ByteBuffer slice(ByteBuffer buf, int from, int to) {
+            ByteBuffer b = buf.duplicate();
+            ((Buffer) b).position(from);
+            ((Buffer) b).limit(to);
+            return b.slice();
+        }
+
+        String get(int row) {
+            int code = codes.get(row);
+            if (code < 0)
+                return null;
+            int from = offsets.get(code);
+            byte[] b = new byte[offsets.get(code + 1) - from];
+            ByteBuffer src = bytes.duplicate();
+            ((Buffer) src).position(from);
+            src.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+}
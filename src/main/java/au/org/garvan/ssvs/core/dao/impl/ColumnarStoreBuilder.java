@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.dao.impl;
+
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.Field;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline build of the columnar store read by {@link SummStatsMmapImpl} from the summstats table,
+ * see {@link ColumnarChromosome} for the layout.
+ * <p>
+ * Usage: java -cp ssvs2/WEB-INF/classes:mysql-connector-java.jar au.org.garvan.ssvs.core.dao.impl.ColumnarStoreBuilder
+ * jdbc:mysql://host/summstats user password /data/ssvs/MGRB
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public class ColumnarStoreBuilder {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length != 4) {
+            System.out.println("Usage: ColumnarStoreBuilder <jdbc url> <user> <password> <output dir>");
+            System.exit(1);
+        }
+
+        try (Connection conn = DriverManager.getConnection(args[0], args[1], args[2])) {
+            for (Chromosome chr : Chromosome.values()) {
+                long rows = build(conn, chr, Paths.get(args[3]).resolve(chr.toString()));
+                System.out.println("chr" + chr + ": " + rows + " variants");
+            }
+        }
+    }
+
+    private static long build(Connection conn, Chromosome chr, Path dir) throws IOException, SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (Field f : Field.values())
+            sql.append(f.ordinal() == 0 ? "" : ", ").append(f.getColumn());
+        sql.append(" FROM summstats WHERE CHROMOSOME = ? ORDER BY START, VARIANT");
+
+        try (PreparedStatement st = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            if (conn.getMetaData().getURL().startsWith("jdbc:mysql"))
+                st.setFetchSize(Integer.MIN_VALUE); // stream rows instead of buffering the chromosome
+            st.setString(1, chr.toString());
+            try (ResultSet rs = st.executeQuery()) {
+                if (!rs.next())
+                    return 0;
+
+                Files.createDirectories(dir);
+                Map<Field, DataOutputStream> out = new EnumMap<>(Field.class);
+                Map<Field, Map<String, Integer>> dicts = new EnumMap<>(Field.class);
+                for (Field f : Field.values()) {
+                    String ext = (f.getType() == Integer.class) ? ColumnarChromosome.INT :
+                                 (f.getType() == Double.class) ? ColumnarChromosome.DOUBLE :
+                                 (f.getType() == Float.class) ? ColumnarChromosome.FLOAT : ColumnarChromosome.CODES;
+                    out.put(f, new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve(f + ext)), 1 << 16)));
+                    if (f.getType() == String.class)
+                        dicts.put(f, new LinkedHashMap<>());
+                }
+
+                long[] rsids = new long[1024]; // rsID index entries, see ColumnarChromosome
+                int n = 0;
+                long rows = 0;
+                do {
+                    for (Field f : Field.values()) {
+                        int col = f.ordinal() + 1;
+                        DataOutputStream os = out.get(f);
+                        if (f.getType() == Integer.class) {
+                            os.writeInt(rs.getInt(col));
+                        } else if (f.getType() == Double.class) {
+                            double d = rs.getDouble(col);
+                            os.writeDouble(rs.wasNull() ? Double.NaN : d);
+                        } else if (f.getType() == Float.class) {
+                            float d = rs.getFloat(col);
+                            os.writeFloat(rs.wasNull() ? Float.NaN : d);
+                        } else {
+                            String s = rs.getString(col);
+                            Map<String, Integer> dict = dicts.get(f);
+                            os.writeInt((s == null) ? -1 : dict.computeIfAbsent(s, k -> dict.size()));
+                            if (f != Field.FIELD06)
+                                continue;
+                            for (long id : ColumnarChromosome.rsNumbers(s)) {
+                                if (n == rsids.length)
+                                    rsids = Arrays.copyOf(rsids, n * 2);
+                                rsids[n++] = id << 32 | rows;
+                            }
+                        }
+                    }
+                    ++rows;
+                } while (rs.next());
+
+                for (DataOutputStream os : out.values())
+                    os.close();
+                for (Map.Entry<Field, Map<String, Integer>> e : dicts.entrySet())
+                    writeDictionary(dir.resolve(e.getKey() + ColumnarChromosome.DICT), e.getValue());
+                writeRsidIndex(dir.resolve(ColumnarChromosome.RSID_INDEX), rsids, n);
+                return rows;
+            }
+        }
+    }
+
+    private static void writeRsidIndex(Path file, long[] entries, int n) throws IOException {
+        Arrays.sort(entries, 0, n);
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (int i = 0; i < n; i++)
+                os.writeLong(entries[i]);
+        }
+    }
+
+    private static void writeDictionary(Path file, Map<String, Integer> dict) throws IOException {
+        List<byte[]> values = new ArrayList<>(dict.size());
+        for (String s : dict.keySet()) // insertion order is code order
+            values.add(s.getBytes(StandardCharsets.UTF_8));
+
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            os.writeInt(values.size());
+            int offset = 0;
+            os.writeInt(offset);
+            for (byte[] b : values)
+                os.writeInt(offset += b.length);
+            for (byte[] b : values)
+                os.write(b);
+        }
+    }
+}
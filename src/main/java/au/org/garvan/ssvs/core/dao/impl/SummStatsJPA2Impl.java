@@ -28,23 +28,60 @@ package au.org.garvan.ssvs.core.dao.impl;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import javax.ejb.*;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 
+import au.org.garvan.ssvs.core.dao.AlleleVisitor;
 import au.org.garvan.ssvs.core.dao.SummStatsDao;
 import au.org.garvan.ssvs.core.entity.*;
+import au.org.garvan.ssvs.core.util.Deadline;
+import au.org.garvan.ssvs.core.util.ReadConfig;
 
+/**
+ * JPA backend, the default. A dataset is read through the persistence unit whose entity manager is bound to the JNDI
+ * name <i>jpa.entityManager.DATASET</i> or <i>jpa.entityManager</i> (WildFly's jboss.entity.manager.jndi.name), or
+ * through SummStatsPersistenceUnit if neither is set. Every unit has its own datasource, i.e. connection pool, and can
+ * put the summstats table in another schema with hibernate.default_schema, see persistence.xml.
+ */
 @Stateless
 public class SummStatsJPA2Impl implements SummStatsDao {
 
+    private static final Map<String, EntityManager> units = new ConcurrentHashMap<>();
+    private static final int IN_LIST = 1000; // positions per lookup statement
+
     @PersistenceContext(unitName="SummStatsPersistenceUnit")
     private EntityManager entityManager;
 
-    public Long count(Chromosome chr, Integer start, Integer end) {
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    /**
+     * Transaction scoped entity manager of the dataset's persistence unit.
+     */
+    private EntityManager entityManager(DatasetID dataset) {
+        String name = ReadConfig.getProp("jpa.entityManager", dataset, null);
+        if (name == null || name.isEmpty())
+            return entityManager;
+        return units.computeIfAbsent(name, n -> {
+            try {
+                return (EntityManager) new InitialContext().lookup(n);
+            } catch (NamingException e) {
+                throw new EJBException("No persistence unit bound to " + n, e);
+            }
+        });
+    }
+
+    public Long count(DatasetID dataset, Chromosome chr, Integer start, Integer end, VariantFilter filter) {
+        EntityManager em = entityManager(dataset);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
         CriteriaQuery<Long> cq = cb.createQuery(Long.class);
         Root<Variant> root = cq.from(Variant.class);
 
@@ -55,78 +92,258 @@ public class SummStatsJPA2Impl implements SummStatsDao {
         Predicate predStart = cb.between(pos, start, end);
 
         cq.select(cb.count(root));
-        cq.where(cb.and(predChr,predStart));
+        cq.where(cb.and(predChr, predStart, filter(cb, root, filter)));
 
-        TypedQuery<Long> q = entityManager.createQuery(cq);
+        TypedQuery<Long> q = createQuery(em, cq);
         q.setParameter(paramChr, chr.toString());
 
         return q.getSingleResult();
     }
 
-//    public BeaconResponse beacon(Chromosome chr, Integer start, Allele allele) {
-//        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-//        CriteriaQuery<V> cq = cb.createQuery(V.class);
-//        Root<Variant> root = cq.from(Variant.class);
-//
-//        ParameterExpression<String>  paramChr = cb.parameter(String.class);
-//        Predicate predChr = cb.equal(root.get("chr"), paramChr);
-//
-//        Expression<Integer> pos = root.get("start");
-//        Predicate predStart = cb.equal(pos, start);
-//
-//        ParameterExpression<String>  paramAlt = cb.parameter(String.class);
-//        Predicate predAlt = cb.equal(root.get("alt"), paramAlt);
-//
-//        cq.select(cb.construct(V.class, root.get("v"), root.get("chr"), root.get("start"), root.get("rsid"),
-//            root.get("af"), root.get("nHet"), root.get("nHomVar")));
-//        cq.where(cb.and(predChr,predStart,predAlt));
-//
-//        TypedQuery<V> q = entityManager.createQuery(cq);
-//        q.setParameter(paramChr, chr.toString());
-//        q.setParameter(paramAlt, allele.toString());
-//
-//        V res = q.getSingleResult();
-//
-//        return new BeaconResponse(allele.toString(), res.getAf(), res.getnHet() + res.getnHom() * 2);
-//    }
-//
-    public List<Variant> q(Chromosome chr, Integer start, Integer end, Integer lim, Integer skip) {
-
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery<V> cq = cb.createQuery(V.class);
-        Root<V> root = cq.from(V.class);
+    /**
+     * Number of variants in each fixed size bin of a chromosome, bin i covers [i * binSize, (i + 1) * binSize).
+     */
+    public long[] binCounts(DatasetID dataset, Chromosome chr, int binSize) {
+        // native: JPQL can't group by an integer division, bin size is an int and safe to inline
+        // {h-schema} is the unit's hibernate.default_schema, native SQL isn't qualified otherwise
+        Query q = entityManager(dataset).createNativeQuery("SELECT FLOOR(START / " + binSize + "), COUNT(*) " +
+                                                           "FROM {h-schema}summstats WHERE CHROMOSOME = ?1 " +
+                                                           "GROUP BY FLOOR(START / " + binSize + ")");
+        q.setParameter(1, chr.toString());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = q.getResultList();
+        int bins = 0;
+        for (Object[] row : rows)
+            bins = Math.max(bins, ((Number) row[0]).intValue() + 1);
+
+        long[] counts = new long[bins];
+        for (Object[] row : rows)
+            counts[((Number) row[0]).intValue()] = ((Number) row[1]).longValue();
+        return counts;
+    }
+
+    /**
+     * Non empty bins of a region in position order, one GROUP BY on the (CHROMOSOME, START) index; AF is only read
+     * if asked for.
+     */
+    public List<DensityBin> density(DatasetID dataset, Chromosome chr, int start, int end, int binSize, boolean af) {
+        // native for the same reason as binCounts
+        Query q = entityManager(dataset).createNativeQuery("SELECT FLOOR(START / " + binSize + "), COUNT(*)" +
+                                                           (af ? ", AVG(AF), MAX(AF) " : " ") +
+                                                           "FROM {h-schema}summstats WHERE CHROMOSOME = ?1 AND START BETWEEN ?2 AND ?3 " +
+                                                           "GROUP BY FLOOR(START / " + binSize + ") ORDER BY 1");
+        q.setParameter(1, chr.toString());
+        q.setParameter(2, start);
+        q.setParameter(3, end);
+        Integer timeout = Deadline.remainingMs();
+        if (timeout != null)
+            q.setHint("javax.persistence.query.timeout", Math.max(1000, timeout));
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = q.getResultList();
+        List<DensityBin> bins = new ArrayList<>(rows.size());
+        for (Object[] row : rows)
+            bins.add(DensityBin.of(((Number) row[0]).intValue(), binSize, start, end, ((Number) row[1]).longValue(),
+                                   af ? dbl(row[2]) : null, af ? dbl(row[3]) : null));
+        return bins;
+    }
+
+    /**
+     * Whether a variant with the alleles is at the position, any reference allele matches if {@code ref} is null.
+     */
+    public boolean exists(DatasetID dataset, Chromosome chr, Integer start, String ref, String alt) {
+        EntityManager em = entityManager(dataset);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<String> cq = cb.createQuery(String.class);
+        Root<Variant> root = cq.from(Variant.class);
 
         ParameterExpression<String>  paramChr = cb.parameter(String.class);
         Predicate predChr = cb.equal(root.get("chr"), paramChr);
 
         Expression<Integer> pos = root.get("start");
-        Predicate predStart = cb.between(pos, start, end);
+        Predicate predStart = cb.equal(pos, start);
 
-        cq.select(cb.construct(V.class, root.get("v"), root.get("chr"), root.get("start"), root.get("rsid"),
-                               root.get("af"), root.get("nHet"), root.get("nHom")));
-        cq.where(cb.and(predChr,predStart));
+        ParameterExpression<String>  paramAlt = cb.parameter(String.class);
+        Predicate predAlt = cb.equal(root.get("alt"), paramAlt);
+
+        ParameterExpression<String>  paramRef = cb.parameter(String.class);
+        Predicate predRef = (ref == null) ? cb.conjunction() : cb.equal(root.get("ref"), paramRef);
 
-        TypedQuery<V> q = entityManager.createQuery(cq);
+        cq.select(root.get("v"));
+        cq.where(cb.and(predChr, predStart, predAlt, predRef));
+
+        TypedQuery<String> q = createQuery(em, cq);
         q.setParameter(paramChr, chr.toString());
+        q.setParameter(paramAlt, alt);
+        if (ref != null)
+            q.setParameter(paramRef, ref);
+        q.setMaxResults(1);
 
-        q.setMaxResults(lim);
+        return !q.getResultList().isEmpty();
+    }
 
-        if (skip != null && skip >= 0)
-            q.setFirstResult(skip);
+    /**
+     * Streams (start, ref, alt) of a whole chromosome, see {@link #stream}.
+     */
+    public void alleles(DatasetID dataset, Chromosome chr, AlleleVisitor visitor) {
+        EntityManager em = entityManager(dataset);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Object[]> cq = cb.createQuery(Object[].class);
+        Root<Variant> root = cq.from(Variant.class);
+
+        ParameterExpression<String>  paramChr = cb.parameter(String.class);
+        Predicate predChr = cb.equal(root.get("chr"), paramChr);
+
+        cq.multiselect(root.get("start"), root.get("ref"), root.get("alt"));
+        cq.where(predChr);
+
+        TypedQuery<Object[]> q = createQuery(em, cq);
+        q.setParameter(paramChr, chr.toString());
+        streamHints(q);
+        try (Stream<Object[]> rows = q.getResultStream()) {
+            rows.forEach(r -> visitor.visit((Integer) r[0], (String) r[1], (String) r[2]));
+        }
+    }
+
+    /**
+     * Whole rows at {@code starts} in (start, variant) order. Positions go in IN lists of up to {@link #IN_LIST}, each
+     * list is a set of seeks on the (CHROMOSOME, START, ...) indexes.
+     */
+    public List<Variant> lookup(DatasetID dataset, Chromosome chr, int[] starts) {
+        EntityManager em = entityManager(dataset);
+        List<Variant> variants = new ArrayList<>();
+        for (int from = 0; from < starts.length; from += IN_LIST) {
+            List<Integer> batch = new ArrayList<>(IN_LIST);
+            for (int i = from; i < Math.min(starts.length, from + IN_LIST); i++)
+                batch.add(starts[i]);
 
-        List<V> qVariants = q.getResultList();
+            CriteriaBuilder cb = em.getCriteriaBuilder();
+            CriteriaQuery<Variant> cq = cb.createQuery(Variant.class);
+            Root<Variant> root = cq.from(Variant.class);
+
+            ParameterExpression<String>  paramChr = cb.parameter(String.class);
+            Predicate predChr = cb.equal(root.get("chr"), paramChr);
+
+            Expression<Integer> pos = root.get("start");
+            cq.select(fullRow(cb, root));
+            cq.where(cb.and(predChr, pos.in(batch)));
+            cq.orderBy(cb.asc(pos), cb.asc(root.get("v")));
+
+            TypedQuery<Variant> q = createQuery(em, cq);
+            q.setParameter(paramChr, chr.toString());
+            variants.addAll(q.getResultList());
+        }
+        return variants;
+    }
+
+    /**
+     * Whole rows with one of the dbSNP ids, IN lists of up to {@link #IN_LIST} ids on the RSID index.
+     */
+    public List<Variant> rsids(DatasetID dataset, List<String> rsids) {
+        EntityManager em = entityManager(dataset);
+        List<Variant> variants = new ArrayList<>();
+        for (int from = 0; from < rsids.size(); from += IN_LIST) {
+            List<String> batch = rsids.subList(from, Math.min(rsids.size(), from + IN_LIST));
+
+            CriteriaBuilder cb = em.getCriteriaBuilder();
+            CriteriaQuery<Variant> cq = cb.createQuery(Variant.class);
+            Root<Variant> root = cq.from(Variant.class);
+
+            Expression<String> rsid = root.get("rsid");
+            cq.select(fullRow(cb, root));
+            cq.where(rsid.in(batch));
+
+            variants.addAll(createQuery(em, cq).getResultList());
+        }
+        return variants;
+    }
+
+    public List<Variant> q(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                           Cursor after, VariantFilter filter) {
+        List<V> qVariants = shortQuery(entityManager(dataset), chr, start, end, lim, skip, after, filter).getResultList();
         List<Variant> variants =  new ArrayList<>(qVariants.size());
 
         Iterator<V> it = qVariants.iterator();
         while (it.hasNext()) {
-            V v = it.next();
-            variants.add(new Variant(v.getV(), v.getChr(), v.getStart(), v.getRsid(), v.getAf(), v.getnHet(), v.getnHom()));
+            variants.add(toVariant(it.next()));
         }
         return variants;
     }
 
-    public List<Variant> query(Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Field sortBy, Boolean desc) {
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    public List<Variant> query(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                               Cursor after, VariantFilter filter, Field sortBy, Boolean desc) {
+        return annotatedQuery(entityManager(dataset), chr, start, end, lim, skip, after, filter, sortBy, desc).getResultList();
+    }
+
+    /**
+     * Reads rows from a forward-only cursor and hands them over one by one, so nothing but the current row
+     * is held on the heap. Constructor expressions return unmanaged objects, thus the persistence context stays empty.
+     */
+    public void stream(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                       VariantFilter filter, Field sortBy, Boolean desc, Boolean annot, Consumer<Variant> consumer) {
+        if (annot) {
+            TypedQuery<Variant> q = annotatedQuery(entityManager(dataset), chr, start, end, lim, skip, after, filter, sortBy, desc);
+            streamHints(q);
+            try (Stream<Variant> rows = q.getResultStream()) {
+                rows.forEach(consumer);
+            }
+        } else {
+            TypedQuery<V> q = shortQuery(entityManager(dataset), chr, start, end, lim, skip, after, filter);
+            streamHints(q);
+            try (Stream<V> rows = q.getResultStream()) {
+                rows.forEach(v -> consumer.accept(toVariant(v)));
+            }
+        }
+    }
+
+    /**
+     * Streams only the requested columns as {@code Object[]} rows in the order of {@code fields}.
+     */
+    public void project(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                        VariantFilter filter, Field sortBy, Boolean desc, List<Field> fields, Consumer<Object[]> consumer) {
+        TypedQuery<Tuple> q = projectedQuery(entityManager(dataset), chr, start, end, lim, skip, after, filter, sortBy, desc,
+                                             fields);
+        streamHints(q);
+        try (Stream<Tuple> rows = q.getResultStream()) {
+            rows.forEach(t -> consumer.accept(t.toArray()));
+        }
+    }
+
+    /**
+     * Short rows are read through the {@link Variant} mapping of summstats, filters may need any of its columns.
+     */
+    private TypedQuery<V> shortQuery(EntityManager em, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                                     Cursor after, VariantFilter filter) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<V> cq = cb.createQuery(V.class);
+        Root<Variant> root = cq.from(Variant.class);
+
+        ParameterExpression<String>  paramChr = cb.parameter(String.class);
+        Predicate predChr = cb.equal(root.get("chr"), paramChr);
+
+        Expression<Integer> pos = root.get("start");
+        Predicate predStart = cb.between(pos, start, end);
+
+        cq.select(cb.construct(V.class, root.get("v"), root.get("chr"), root.get("start"), root.get("rsid"),
+                               root.get("af"), root.get("nHet"), root.get("nHomVar")));
+        cq.where(cb.and(predChr, predStart, seek(cb, root, after), filter(cb, root, filter)));
+        cq.orderBy(cb.asc(pos), cb.asc(root.get("v")));
+
+        TypedQuery<V> q = createQuery(em, cq);
+        q.setParameter(paramChr, chr.toString());
+
+        q.setMaxResults(lim);
+
+        if (skip != null && skip >= 0)
+            q.setFirstResult(skip);
+
+        return q;
+    }
+
+    private TypedQuery<Variant> annotatedQuery(EntityManager em, Chromosome chr, Integer start, Integer end, Integer lim,
+                                               Integer skip, Cursor after, VariantFilter filter, Field sortBy, Boolean desc) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
         CriteriaQuery<Variant> cq = cb.createQuery(Variant.class);
         Root<Variant> root = cq.from(Variant.class);
 
@@ -136,20 +353,54 @@ public class SummStatsJPA2Impl implements SummStatsDao {
         Expression<Integer> pos = root.get("start");
         Predicate predStart = cb.between(pos, start, end);
 
-        cq.select(cb.construct(Variant.class, root.get("v"), root.get("chr"), root.get("start"), root.get("ref"), root.get("alt"),
-            root.get("rsid"), root.get("ac"), root.get("af"), root.get("nHomRef"), root.get("nHet"), root.get("nHomVar"),
-            root.get("type"), root.get("cato"), root.get("eigen"), root.get("sift"), root.get("polyPhen"), root.get("hrcAF"),
-            root.get("gnomadAF"), root.get("gnomadAF_AFR"), root.get("gnomadAF_AMR"), root.get("gnomadAF_ASJ"),
-            root.get("gnomadAF_EAS"), root.get("gnomadAF_FIN"), root.get("gnomadAF_NFE"), root.get("gnomadAF_OTHD"),
-            root.get("ensemblId"), root.get("consequences"), root.get("geneSymbol"), root.get("clinvar"), root.get("wasSplit")));
-        cq.where(cb.and(predChr,predStart));
+        cq.select(fullRow(cb, root));
+        cq.where(cb.and(predChr, predStart, seek(cb, root, after), filter(cb, root, filter)));
+
+        if (sortBy != null && desc)
+            cq.orderBy(cb.desc(root.get(sortBy.toString())));
+        else if (sortBy != null)
+            cq.orderBy(cb.asc(root.get(sortBy.toString())));
+        else
+            cq.orderBy(cb.asc(pos), cb.asc(root.get("v")));
+
+        TypedQuery<Variant> q = createQuery(em, cq);
+        q.setParameter(paramChr, chr.toString());
+
+        q.setMaxResults(lim);
+
+        if (skip != null && skip >= 0)
+            q.setFirstResult(skip);
+
+        return q;
+    }
+
+    private TypedQuery<Tuple> projectedQuery(EntityManager em, Chromosome chr, Integer start, Integer end, Integer lim,
+                                             Integer skip, Cursor after, VariantFilter filter, Field sortBy, Boolean desc,
+                                             List<Field> fields) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> cq = cb.createTupleQuery();
+        Root<Variant> root = cq.from(Variant.class);
+
+        ParameterExpression<String>  paramChr = cb.parameter(String.class);
+        Predicate predChr = cb.equal(root.get("chr"), paramChr);
+
+        Expression<Integer> pos = root.get("start");
+        Predicate predStart = cb.between(pos, start, end);
+
+        List<Selection<?>> columns = new ArrayList<>(fields.size());
+        for (Field f : fields)
+            columns.add(root.get(f.toString()));
+        cq.multiselect(columns);
+        cq.where(cb.and(predChr, predStart, seek(cb, root, after), filter(cb, root, filter)));
 
         if (sortBy != null && desc)
             cq.orderBy(cb.desc(root.get(sortBy.toString())));
         else if (sortBy != null)
             cq.orderBy(cb.asc(root.get(sortBy.toString())));
+        else
+            cq.orderBy(cb.asc(pos), cb.asc(root.get("v")));
 
-        TypedQuery<Variant> q = entityManager.createQuery(cq);
+        TypedQuery<Tuple> q = createQuery(em, cq);
         q.setParameter(paramChr, chr.toString());
 
         q.setMaxResults(lim);
@@ -157,6 +408,94 @@ public class SummStatsJPA2Impl implements SummStatsDao {
         if (skip != null && skip >= 0)
             q.setFirstResult(skip);
 
-        return q.getResultList();
+        return q;
+    }
+
+    /**
+     * All columns as a {@link Variant} constructor expression, so rows come back unmanaged.
+     */
+    private static CompoundSelection<Variant> fullRow(CriteriaBuilder cb, Root<Variant> root) {
+        return cb.construct(Variant.class, root.get("v"), root.get("chr"), root.get("start"), root.get("ref"), root.get("alt"),
+            root.get("rsid"), root.get("ac"), root.get("af"), root.get("nHomRef"), root.get("nHet"), root.get("nHomVar"),
+            root.get("type"), root.get("cato"), root.get("eigen"), root.get("sift"), root.get("polyPhen"), root.get("hrcAF"),
+            root.get("gnomadAF"), root.get("gnomadAF_AFR"), root.get("gnomadAF_AMR"), root.get("gnomadAF_ASJ"),
+            root.get("gnomadAF_EAS"), root.get("gnomadAF_FIN"), root.get("gnomadAF_NFE"), root.get("gnomadAF_OTHD"),
+            root.get("ensemblId"), root.get("consequences"), root.get("geneSymbol"), root.get("clinvar"), root.get("wasSplit"));
+    }
+
+    /**
+     * Keyset predicate (START, VARIANT) &gt; (after.start, after.variant), spelled out as JPQL has no row values.
+     * Together with the ordering it is a range seek on the (CHROMOSOME, START, VARIANT) index, skipped rows are never read.
+     */
+    private static Predicate seek(CriteriaBuilder cb, Root<?> root, Cursor after) {
+        if (after == null)
+            return cb.conjunction();
+
+        Expression<Integer> pos = root.get("start");
+        Expression<String> v = root.get("v");
+        return cb.or(cb.greaterThan(pos, after.getStart()),
+                     cb.and(cb.equal(pos, after.getStart()), cb.greaterThan(v, after.getVariant())));
+    }
+
+    /**
+     * Variant filters as predicates, so rows that don't match never leave the database.
+     */
+    private static Predicate filter(CriteriaBuilder cb, Root<?> root, VariantFilter filter) {
+        if (filter == null)
+            return cb.conjunction();
+
+        List<Predicate> preds = new ArrayList<>();
+        for (RangeFilter r : filter.getRanges()) {
+            Expression<Number> x = root.get(r.getField().toString());
+            boolean single = r.getField().getType() == Float.class; // compare FLOAT columns in their own precision
+            if (r.getMin() != null)
+                preds.add(cb.ge(x, single ? (Number) r.getMin().floatValue() : r.getMin()));
+            if (r.getMax() != null)
+                preds.add(cb.le(x, single ? (Number) r.getMax().floatValue() : r.getMax()));
+        }
+        if (filter.getType() != null)
+            preds.add(cb.equal(root.get("type"), filter.getType()));
+        if (filter.getGeneSymbol() != null)
+            preds.add(cb.equal(root.get("geneSymbol"), filter.getGeneSymbol()));
+        // with START pinned these seek on (CHROMOSOME, START, REF, ALT), a variant lookup reads one index entry
+        if (filter.getRef() != null)
+            preds.add(cb.equal(root.get("ref"), filter.getRef()));
+        if (filter.getAlt() != null)
+            preds.add(cb.equal(root.get("alt"), filter.getAlt()));
+        if (filter.getConsequences() != null) {
+            // '!' escapes, a backslash would need escaping again in MySQL string literals
+            String escaped = filter.getConsequences().replace("!", "!!").replace("%", "!%").replace("_", "!_");
+            preds.add(cb.like(root.get("consequences"), "%" + escaped + "%", '!'));
+        }
+        if (filter.getClinvar() != null) {
+            Expression<String> clinvar = root.get("clinvar");
+            preds.add(filter.getClinvar() ? cb.and(cb.isNotNull(clinvar), cb.notEqual(clinvar, ""))
+                                          : cb.or(cb.isNull(clinvar), cb.equal(clinvar, "")));
+        }
+        return cb.and(preds.toArray(new Predicate[0]));
+    }
+
+    /**
+     * Query bounded by the caller's {@link Deadline}, Hibernate turns the hint into a JDBC statement timeout (seconds).
+     */
+    private static <T> TypedQuery<T> createQuery(EntityManager em, CriteriaQuery<T> cq) {
+        TypedQuery<T> q = em.createQuery(cq);
+        Integer timeout = Deadline.remainingMs();
+        if (timeout != null)
+            q.setHint("javax.persistence.query.timeout", Math.max(1000, timeout));
+        return q;
+    }
+
+    private static void streamHints(TypedQuery<?> q) {
+        q.setHint("org.hibernate.fetchSize", Integer.MIN_VALUE); // MySQL Connector/J streams rows only with this fetch size
+        q.setHint("org.hibernate.readOnly", true);
+    }
+
+    private static Double dbl(Object o) {
+        return (o == null) ? null : ((Number) o).doubleValue();
+    }
+
+    private static Variant toVariant(V v) {
+        return new Variant(v.getV(), v.getChr(), v.getStart(), v.getRsid(), v.getAf(), v.getnHet(), v.getnHom());
     }
 }
\ No newline at end of file
@@ -0,0 +1,494 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.dao.impl;
+
+import au.org.garvan.ssvs.core.dao.AlleleVisitor;
+import au.org.garvan.ssvs.core.dao.SummStatsDao;
+import au.org.garvan.ssvs.core.entity.*;
+import au.org.garvan.ssvs.core.util.Deadline;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+import au.org.garvan.ssvs.core.util.VariantWriter;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.*;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJBException;
+import javax.ejb.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Apache Kudu backend, selected with <i>backend=kudu</i> (or <i>backend.DATASET=kudu</i>).
+ * <p>
+ * Expects the summstats columns in a table <i>kuduTable.DATASET</i> or <i>kuduTable</i> of the cluster
+ * <i>kuduMaster.DATASET</i> or <i>kuduMaster</i>, with primary key (CHROMOSOME, START, VARIANT),
+ * range partitioned on (CHROMOSOME, START): fault tolerant scanners then return rows in (start, variant) order
+ * across tablets, which lets region, limit and cursor predicates run on tablet servers. Only sorting by
+ * another column needs the whole region on the client.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN) // KuduClient is thread safe
+public class SummStatsKuduImpl implements SummStatsDao {
+
+    private static final List<String> SHORT_COLUMNS = columns(false);
+    private static final List<String> ALL_COLUMNS = columns(true);
+    private static final int IN_LIST = 1000; // positions per lookup scan
+
+    private final Map<String, KuduClient> clients = new ConcurrentHashMap<>(); // one per cluster
+    private final Map<String, KuduTable> tables = new ConcurrentHashMap<>();
+
+    private KuduClient client;
+    private String tableName;
+
+    public SummStatsKuduImpl() {
+    }
+
+    /**
+     * For use outside of the container, e.g. against a Kudu mini cluster: every dataset is read from this table.
+     */
+    SummStatsKuduImpl(KuduClient client, String tableName) {
+        this.client = client;
+        this.tableName = tableName;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (KuduClient c : clients.values()) {
+            try {
+                c.close();
+            } catch (KuduException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Long count(DatasetID dataset, Chromosome chr, Integer start, Integer end, VariantFilter filter) {
+        long[] n = new long[1];
+        if (exact(filter)) {
+            scanBatches(pushDown(dataset, regionScan(dataset, chr, start, end, Collections.emptyList()), filter), -1, it -> {
+                n[0] += it.getNumRows();
+                return true;
+            });
+        } else {
+            scan(dataset, chr, start, end, columns(Collections.emptyList(), filter), -1, null, filter, row -> n[0]++);
+        }
+        return n[0];
+    }
+
+    public long[] binCounts(DatasetID dataset, Chromosome chr, int binSize) {
+        List<Long> bins = new ArrayList<>();
+        scan(dataset, chr, 0, Integer.MAX_VALUE, Collections.singletonList(Field.FIELD03.getColumn()), -1, null, null, row -> {
+            int bin = row.getInt(0) / binSize;
+            while (bins.size() <= bin)
+                bins.add(0L);
+            bins.set(bin, bins.get(bin) + 1);
+        });
+        long[] counts = new long[bins.size()];
+        for (int i = 0; i < counts.length; ++i)
+            counts[i] = bins.get(i);
+        return counts;
+    }
+
+    /**
+     * Non empty bins of a region in position order, from a scan of START (and AF if asked for) only. Tablets answer in
+     * any order, so bins are collected by number: count, AF sum, AF values, max AF.
+     */
+    public List<DensityBin> density(DatasetID dataset, Chromosome chr, int start, int end, int binSize, boolean af) {
+        Map<Integer, double[]> acc = new TreeMap<>();
+        List<String> columns = af ? Arrays.asList(Field.FIELD03.getColumn(), Field.FIELD08.getColumn())
+                                  : Collections.singletonList(Field.FIELD03.getColumn());
+        scan(dataset, chr, start, end, columns, -1, null, null, row -> {
+            double[] a = acc.computeIfAbsent(row.getInt(0) / binSize, k -> new double[]{0, 0, 0, Double.NaN});
+            a[0]++;
+            Double v = af ? dbl(row, Field.FIELD08) : null;
+            if (v != null) {
+                a[1] += v;
+                a[2]++;
+                a[3] = (Double.isNaN(a[3]) || v > a[3]) ? v : a[3];
+            }
+        });
+
+        List<DensityBin> bins = new ArrayList<>(acc.size());
+        for (Map.Entry<Integer, double[]> e : acc.entrySet()) {
+            double[] a = e.getValue();
+            bins.add(DensityBin.of(e.getKey(), binSize, start, end, (long) a[0], (a[2] == 0) ? null : a[1] / a[2],
+                                   (a[2] == 0) ? null : a[3]));
+        }
+        return bins;
+    }
+
+    public boolean exists(DatasetID dataset, Chromosome chr, Integer start, String ref, String alt) {
+        KuduTable t = table(dataset);
+        KuduScanner.KuduScannerBuilder builder = regionScan(dataset, chr, start, start, Collections.singletonList(Field.FIELD01.getColumn()))
+            .addPredicate(KuduPredicate.newComparisonPredicate(t.getSchema().getColumn(Field.FIELD05.getColumn()),
+                                                               KuduPredicate.ComparisonOp.EQUAL, alt));
+        if (ref != null)
+            builder.addPredicate(KuduPredicate.newComparisonPredicate(t.getSchema().getColumn(Field.FIELD04.getColumn()),
+                                                                      KuduPredicate.ComparisonOp.EQUAL, ref));
+        long[] n = new long[1];
+        scanBatches(builder, 1, it -> {
+            n[0] += it.getNumRows();
+            return true;
+        });
+        return n[0] > 0;
+    }
+
+    public void alleles(DatasetID dataset, Chromosome chr, AlleleVisitor visitor) {
+        List<String> columns = Arrays.asList(Field.FIELD03.getColumn(), Field.FIELD04.getColumn(), Field.FIELD05.getColumn());
+        scan(dataset, chr, 0, Integer.MAX_VALUE, columns, -1, null, null,
+             row -> visitor.visit(row.getInt(0), str(row, Field.FIELD04), str(row, Field.FIELD05)));
+    }
+
+    /**
+     * Whole rows at {@code starts}, as in-list predicates on the START key column: tablet servers seek to every position
+     * instead of scanning the span between them.
+     */
+    public List<Variant> lookup(DatasetID dataset, Chromosome chr, int[] starts) {
+        List<Variant> variants = new ArrayList<>();
+        ColumnSchema posCol = table(dataset).getSchema().getColumn(Field.FIELD03.getColumn());
+        for (int from = 0; from < starts.length; from += IN_LIST) {
+            int to = Math.min(starts.length, from + IN_LIST);
+            List<Integer> batch = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++)
+                batch.add(starts[i]);
+            scanBatches(regionScan(dataset, chr, starts[from], starts[to - 1], ALL_COLUMNS)
+                .addPredicate(KuduPredicate.newInListPredicate(posCol, batch)), -1, it -> {
+                    while (it.hasNext())
+                        variants.add(toVariant(it.next(), true));
+                    return true;
+                });
+        }
+        variants.sort(Comparator.comparingInt(Variant::getStart).thenComparing(Variant::getV));
+        return variants;
+    }
+
+    /**
+     * Whole rows with one of the dbSNP ids. Kudu has no secondary indexes: the in-list predicate on RSID is evaluated
+     * by the tablet servers over the RSID column only, and just the matching rows are materialised.
+     */
+    public List<Variant> rsids(DatasetID dataset, List<String> rsids) {
+        List<Variant> variants = new ArrayList<>();
+        KuduTable t = table(dataset);
+        ColumnSchema rsidCol = t.getSchema().getColumn(Field.FIELD06.getColumn());
+        scanBatches(client(dataset).newScannerBuilder(t)
+            .setProjectedColumnNames(ALL_COLUMNS)
+            .addPredicate(KuduPredicate.newInListPredicate(rsidCol, rsids))
+            .setFaultTolerant(true), -1, it -> {
+                while (it.hasNext())
+                    variants.add(toVariant(it.next(), true));
+                return true;
+            });
+        return variants;
+    }
+
+    public List<Variant> q(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                           Cursor after, VariantFilter filter) {
+        List<Variant> variants = new ArrayList<>();
+        stream(dataset, chr, start, end, lim, skip, after, filter, null, false, false, variants::add);
+        return variants;
+    }
+
+    public List<Variant> query(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                               Cursor after, VariantFilter filter, Field sortBy, Boolean desc) {
+        List<Variant> variants = new ArrayList<>();
+        stream(dataset, chr, start, end, lim, skip, after, filter, sortBy, desc, true, variants::add);
+        return variants;
+    }
+
+    public void stream(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                       VariantFilter filter, Field sortBy, Boolean desc, Boolean annot, Consumer<Variant> consumer) {
+        List<String> columns = columns(annot ? ALL_COLUMNS : SHORT_COLUMNS, filter);
+        long offset = (skip != null && skip > 0) ? skip : 0;
+
+        if (sortBy == null) {
+            // rows come in key order, limit is pushed down
+            long[] seen = {0};
+            scan(dataset, chr, start, end, columns, lim + offset, after, filter, row -> {
+                if (seen[0] >= offset && seen[0] < lim + offset)
+                    consumer.accept(toVariant(row, annot));
+                seen[0]++;
+            });
+            return;
+        }
+
+        List<Variant> variants = new ArrayList<>();
+        scan(dataset, chr, start, end, columns, -1, after, filter, row -> variants.add(toVariant(row, annot)));
+        Comparator<Variant> order = (a, b) -> Field.compare(a.valueOf(sortBy), b.valueOf(sortBy));
+        variants.sort(desc ? order.reversed() : order);
+        variants.stream().skip(offset).limit(lim).forEach(consumer);
+    }
+
+    public void project(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                        VariantFilter filter, Field sortBy, Boolean desc, List<Field> fields, Consumer<Object[]> consumer) {
+        List<Field> read = new ArrayList<>(fields);
+        if (sortBy != null && !read.contains(sortBy))
+            read.add(sortBy);
+        List<String> columns = new ArrayList<>(read.size());
+        for (Field f : read)
+            columns.add(f.getColumn());
+        columns = columns(columns, filter);
+        long offset = (skip != null && skip > 0) ? skip : 0;
+
+        if (sortBy == null) {
+            long[] seen = {0};
+            scan(dataset, chr, start, end, columns, lim + offset, after, filter, row -> {
+                if (seen[0] >= offset && seen[0] < lim + offset)
+                    consumer.accept(values(row, fields));
+                seen[0]++;
+            });
+            return;
+        }
+
+        int key = read.indexOf(sortBy);
+        List<Object[]> rows = new ArrayList<>();
+        scan(dataset, chr, start, end, columns, -1, after, filter, row -> rows.add(values(row, read)));
+        Comparator<Object[]> order = (a, b) -> Field.compare(a[key], b[key]);
+        rows.sort(desc ? order.reversed() : order);
+        rows.stream().skip(offset).limit(lim)
+            .forEach(r -> consumer.accept(r.length == fields.size() ? r : Arrays.copyOf(r, fields.size())));
+    }
+
+    /**
+     * Matching rows of a region in key order, at most {@code limit} of them if it is not negative. A cursor splits
+     * the scan in two: the rest of the cursor's position, (START = s AND VARIANT &gt; v), and then the region after it,
+     * so both seek on the primary key. Filters Kudu can't evaluate are checked here, the limit is then applied here too.
+     */
+    private void scan(DatasetID dataset, Chromosome chr, int start, int end, List<String> columns, long limit, Cursor after,
+                      VariantFilter filter, Consumer<RowResult> consumer) {
+        if (limit == 0)
+            return;
+
+        long[] n = {0};
+        Predicate<RowResultIterator> rows = it -> {
+            while (it.hasNext() && (limit < 0 || n[0] < limit)) {
+                RowResult row = it.next();
+                if (filter != null && !filter.matches(f -> row.getObject(f.getColumn())))
+                    continue;
+                consumer.accept(row);
+                n[0]++;
+            }
+            return limit < 0 || n[0] < limit;
+        };
+        long serverLimit = exact(filter) ? limit : -1;
+
+        if (after != null && after.getStart() >= start && after.getStart() <= end) {
+            ColumnSchema vCol = table(dataset).getSchema().getColumn(Field.FIELD01.getColumn());
+            scanBatches(pushDown(dataset, regionScan(dataset, chr, after.getStart(), after.getStart(), columns), filter)
+                .addPredicate(KuduPredicate.newComparisonPredicate(vCol, KuduPredicate.ComparisonOp.GREATER, after.getVariant())),
+                serverLimit, rows);
+            if (after.getStart() == end || (limit >= 0 && n[0] >= limit))
+                return;
+            start = after.getStart() + 1;
+        } else if (after != null && after.getStart() > end) {
+            return;
+        }
+        scanBatches(pushDown(dataset, regionScan(dataset, chr, start, end, columns), filter), (serverLimit < 0) ? -1 : serverLimit - n[0], rows);
+    }
+
+    /**
+     * Pushes chromosome, position range and projection down to the tablet servers.
+     */
+    private KuduScanner.KuduScannerBuilder regionScan(DatasetID dataset, Chromosome chr, int start, int end,
+                                                      List<String> columns) {
+        KuduTable t = table(dataset);
+        ColumnSchema chrCol = t.getSchema().getColumn(Field.FIELD02.getColumn());
+        ColumnSchema posCol = t.getSchema().getColumn(Field.FIELD03.getColumn());
+        return client(dataset).newScannerBuilder(t)
+            .setProjectedColumnNames(columns)
+            .addPredicate(KuduPredicate.newComparisonPredicate(chrCol, KuduPredicate.ComparisonOp.EQUAL, chr.toString()))
+            .addPredicate(KuduPredicate.newComparisonPredicate(posCol, KuduPredicate.ComparisonOp.GREATER_EQUAL, start))
+            .addPredicate(KuduPredicate.newComparisonPredicate(posCol, KuduPredicate.ComparisonOp.LESS_EQUAL, end))
+            .setFaultTolerant(true);
+    }
+
+    /**
+     * Adds the filter predicates Kudu can evaluate: ranges, alleles (normalised to upper case, as VCF alleles are
+     * stored) and the null part of clinvar. Kudu compares strings case sensitively, so type and gene symbol, which
+     * match in any case, are left to {@link VariantFilter#matches}.
+     */
+    private KuduScanner.KuduScannerBuilder pushDown(DatasetID dataset, KuduScanner.KuduScannerBuilder builder,
+                                                    VariantFilter filter) {
+        if (filter == null)
+            return builder;
+
+        Schema schema = table(dataset).getSchema();
+        for (RangeFilter r : filter.getRanges()) {
+            ColumnSchema col = schema.getColumn(r.getField().getColumn());
+            boolean single = r.getField().getType() == Float.class;
+            if (r.getMin() != null)
+                builder.addPredicate(single
+                    ? KuduPredicate.newComparisonPredicate(col, KuduPredicate.ComparisonOp.GREATER_EQUAL, r.getMin().floatValue())
+                    : KuduPredicate.newComparisonPredicate(col, KuduPredicate.ComparisonOp.GREATER_EQUAL, r.getMin()));
+            if (r.getMax() != null)
+                builder.addPredicate(single
+                    ? KuduPredicate.newComparisonPredicate(col, KuduPredicate.ComparisonOp.LESS_EQUAL, r.getMax().floatValue())
+                    : KuduPredicate.newComparisonPredicate(col, KuduPredicate.ComparisonOp.LESS_EQUAL, r.getMax()));
+        }
+        if (filter.getRef() != null)
+            builder.addPredicate(KuduPredicate.newComparisonPredicate(schema.getColumn(Field.FIELD04.getColumn()),
+                                                                      KuduPredicate.ComparisonOp.EQUAL, filter.getRef()));
+        if (filter.getAlt() != null)
+            builder.addPredicate(KuduPredicate.newComparisonPredicate(schema.getColumn(Field.FIELD05.getColumn()),
+                                                                      KuduPredicate.ComparisonOp.EQUAL, filter.getAlt()));
+        if (Boolean.TRUE.equals(filter.getClinvar()))
+            builder.addPredicate(KuduPredicate.newIsNotNullPredicate(schema.getColumn(Field.FIELD29.getColumn())));
+        return builder;
+    }
+
+    /**
+     * Whether Kudu evaluates the whole filter, otherwise limits can't be pushed down.
+     */
+    private static boolean exact(VariantFilter filter) {
+        return filter == null || (filter.getConsequences() == null && filter.getClinvar() == null &&
+                                  filter.getType() == null && filter.getGeneSymbol() == null);
+    }
+
+    /**
+     * Consumes batches while {@code consumer} asks for more.
+     */
+    private static void scanBatches(KuduScanner.KuduScannerBuilder builder, long limit, Predicate<RowResultIterator> consumer) {
+        if (limit >= 0)
+            builder.limit(limit);
+        Integer timeout = Deadline.remainingMs();
+        if (timeout != null)
+            builder.scanRequestTimeout(timeout);
+
+        KuduScanner scanner = builder.build();
+        try {
+            long rows = 0;
+            while (scanner.hasMoreRows() && (limit < 0 || rows < limit)) {
+                Deadline.check();
+                RowResultIterator it = scanner.nextRows();
+                rows += it.getNumRows();
+                if (!consumer.test(it))
+                    break;
+            }
+        } catch (KuduException e) {
+            throw new EJBException(e);
+        } finally {
+            try {
+                scanner.close();
+            } catch (KuduException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private KuduClient client(DatasetID dataset) {
+        if (client != null)
+            return client;
+        String master = ReadConfig.getProp("kuduMaster", dataset, "localhost:7051");
+        return clients.computeIfAbsent(master, m -> new KuduClient.KuduClientBuilder(m).build());
+    }
+
+    private KuduTable table(DatasetID dataset) {
+        KuduClient c = client(dataset);
+        String name = (tableName != null) ? tableName : ReadConfig.getProp("kuduTable", dataset, "summstats");
+        return tables.computeIfAbsent(c.getMasterAddressesAsString() + "/" + name, k -> {
+            try {
+                return c.openTable(name);
+            } catch (KuduException e) {
+                throw new EJBException(e);
+            }
+        });
+    }
+
+    private static Variant toVariant(RowResult r, boolean annot) {
+        if (!annot)
+            return new Variant(str(r, Field.FIELD01), str(r, Field.FIELD02), num(r, Field.FIELD03).intValue(),
+                               str(r, Field.FIELD06), dbl(r, Field.FIELD08), num(r, Field.FIELD10).intValue(),
+                               num(r, Field.FIELD11).intValue());
+
+        return new Variant(str(r, Field.FIELD01), str(r, Field.FIELD02), num(r, Field.FIELD03).intValue(), str(r, Field.FIELD04),
+            str(r, Field.FIELD05), str(r, Field.FIELD06), num(r, Field.FIELD07).intValue(), dbl(r, Field.FIELD08),
+            num(r, Field.FIELD09).intValue(), num(r, Field.FIELD10).intValue(), num(r, Field.FIELD11).intValue(),
+            str(r, Field.FIELD12), str(r, Field.FIELD13), str(r, Field.FIELD14), str(r, Field.FIELD15), str(r, Field.FIELD16),
+            flt(r, Field.FIELD17), flt(r, Field.FIELD18), flt(r, Field.FIELD19), flt(r, Field.FIELD20), flt(r, Field.FIELD21),
+            flt(r, Field.FIELD22), flt(r, Field.FIELD23), flt(r, Field.FIELD24), flt(r, Field.FIELD25),
+            str(r, Field.FIELD26), str(r, Field.FIELD27), str(r, Field.FIELD28), str(r, Field.FIELD29), str(r, Field.FIELD30));
+    }
+
+    private static Object[] values(RowResult r, List<Field> fields) {
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = r.getObject(fields.get(i).getColumn());
+        return values;
+    }
+
+    private static String str(RowResult r, Field f) {
+        Object o = r.getObject(f.getColumn());
+        return (o == null) ? null : o.toString();
+    }
+
+    private static Number num(RowResult r, Field f) {
+        Object o = r.getObject(f.getColumn());
+        return (o == null) ? 0 : (Number) o;
+    }
+
+    private static Double dbl(RowResult r, Field f) {
+        Object o = r.getObject(f.getColumn());
+        return (o == null) ? null : ((Number) o).doubleValue();
+    }
+
+    private static Float flt(RowResult r, Field f) {
+        Object o = r.getObject(f.getColumn());
+        return (o == null) ? null : ((Number) o).floatValue();
+    }
+
+    /**
+     * Projection of a query plus the columns its filter reads.
+     */
+    private static List<String> columns(List<String> columns, VariantFilter filter) {
+        if (filter == null)
+            return columns;
+        List<String> all = new ArrayList<>(columns);
+        for (Field f : filter.fields())
+            if (!all.contains(f.getColumn()))
+                all.add(f.getColumn());
+        return all;
+    }
+
+    private static List<String> columns(boolean annot) {
+        List<String> columns = new ArrayList<>();
+        for (Field f : annot ? VariantWriter.ALL_FIELDS : VariantWriter.SHORT_FIELDS)
+            columns.add(f.getColumn());
+        return Collections.unmodifiableList(columns);
+    }
+}
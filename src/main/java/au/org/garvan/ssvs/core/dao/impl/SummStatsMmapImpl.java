@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.dao.impl;
+
+import au.org.garvan.ssvs.core.dao.AlleleVisitor;
+import au.org.garvan.ssvs.core.dao.SummStatsDao;
+import au.org.garvan.ssvs.core.entity.*;
+import au.org.garvan.ssvs.core.util.Deadline;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJBException;
+import javax.ejb.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Embedded backend for read-only datasets, selected with <i>backend=mmap</i>. Serves the memory mapped columnar
+ * store in <i>mmapDir.DATASET</i> or <i>mmapDir</i> built by {@link ColumnarStoreBuilder}: regions are found by binary
+ * search over start, and {@link Variant} objects are built only for returned rows, without JDBC or Hibernate in between.
+ * Hot datasets can thus sit on faster disks than the rest.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN) // mapped files are read only
+public class SummStatsMmapImpl implements SummStatsDao {
+
+    private final Map<Path, Map<Chromosome, Optional<ColumnarChromosome>>> stores = new ConcurrentHashMap<>();
+
+    public Long count(DatasetID dataset, Chromosome chr, Integer start, Integer end, VariantFilter filter) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return 0L;
+
+        int from = c.lowerBound(start);
+        int to = c.lowerBound(end + 1L);
+        if (filter == null)
+            return (long) (to - from);
+
+        long n = 0;
+        for (int row = from; row < to; ++row)
+            if (matches(c, row, filter))
+                ++n;
+        return n;
+    }
+
+    public long[] binCounts(DatasetID dataset, Chromosome chr, int binSize) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null || c.size() == 0)
+            return new long[0];
+
+        long[] counts = new long[c.start(c.size() - 1) / binSize + 1];
+        for (int row = 0; row < c.size(); ++row)
+            ++counts[c.start(row) / binSize];
+        return counts;
+    }
+
+    /**
+     * Non empty bins of a region in position order. Bin edges are binary searches of the start column, so counts
+     * don't touch the rows in between; AF is read row by row if asked for.
+     */
+    public List<DensityBin> density(DatasetID dataset, Chromosome chr, int start, int end, int binSize, boolean af) {
+        List<DensityBin> bins = new ArrayList<>();
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return bins;
+
+        int to = c.lowerBound(end + 1L);
+        for (int row = c.lowerBound(start); row < to; ) {
+            int bin = c.start(row) / binSize;
+            int next = Math.min(to, c.lowerBound((bin + 1L) * binSize));
+            Double mean = null, max = null;
+            if (af) {
+                double sum = 0;
+                int n = 0;
+                for (int r = row; r < next; ++r) {
+                    if ((r & 0xFFFF) == 0)
+                        Deadline.check();
+                    Double v = (Double) c.value(Field.FIELD08, r);
+                    if (v != null) {
+                        sum += v;
+                        ++n;
+                        max = (max == null || v > max) ? v : max;
+                    }
+                }
+                mean = (n == 0) ? null : sum / n;
+            }
+            bins.add(DensityBin.of(bin, binSize, start, end, next - row, mean, max));
+            row = next;
+        }
+        return bins;
+    }
+
+    public boolean exists(DatasetID dataset, Chromosome chr, Integer start, String ref, String alt) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return false;
+
+        for (int row = c.lowerBound(start); row < c.size() && c.start(row) == start; ++row)
+            if (alt.equals(c.value(Field.FIELD05, row)) && (ref == null || ref.equals(c.value(Field.FIELD04, row))))
+                return true;
+        return false;
+    }
+
+    public void alleles(DatasetID dataset, Chromosome chr, AlleleVisitor visitor) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return;
+
+        for (int row = 0; row < c.size(); ++row)
+            visitor.visit(c.start(row), (String) c.value(Field.FIELD04, row), (String) c.value(Field.FIELD05, row));
+    }
+
+    /**
+     * Whole rows at {@code starts}, a merge join of the sorted positions with the start column; gaps between positions
+     * are skipped by binary search.
+     */
+    public List<Variant> lookup(DatasetID dataset, Chromosome chr, int[] starts) {
+        List<Variant> variants = new ArrayList<>();
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return variants;
+
+        int row = 0;
+        for (int start : starts) {
+            if (row < c.size() && c.start(row) < start)
+                row = c.lowerBound(start);
+            for (; row < c.size() && c.start(row) == start; ++row)
+                variants.add(c.variant(row, true));
+        }
+        return variants;
+    }
+
+    /**
+     * Whole rows with one of the dbSNP ids, from the rsID index of every chromosome, see {@link ColumnarChromosome#rsid}.
+     */
+    public List<Variant> rsids(DatasetID dataset, List<String> rsids) {
+        List<Variant> variants = new ArrayList<>();
+        for (Chromosome chr : Chromosome.values()) {
+            ColumnarChromosome c = chromosome(dataset, chr);
+            if (c == null)
+                continue;
+            TreeSet<Integer> rows = new TreeSet<>();
+            for (String rs : rsids)
+                c.rsid(Long.parseLong(rs.substring(2)), rows::add);
+            for (int row : rows)
+                variants.add(c.variant(row, true));
+        }
+        return variants;
+    }
+
+    public List<Variant> q(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                           Cursor after, VariantFilter filter) {
+        List<Variant> variants = new ArrayList<>();
+        stream(dataset, chr, start, end, lim, skip, after, filter, null, false, false, variants::add);
+        return variants;
+    }
+
+    public List<Variant> query(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip,
+                               Cursor after, VariantFilter filter, Field sortBy, Boolean desc) {
+        List<Variant> variants = new ArrayList<>();
+        stream(dataset, chr, start, end, lim, skip, after, filter, sortBy, desc, true, variants::add);
+        return variants;
+    }
+
+    public void stream(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                       VariantFilter filter, Field sortBy, Boolean desc, Boolean annot, Consumer<Variant> consumer) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c != null)
+            rows(c, start, end, lim, skip, after, filter, sortBy, desc, row -> consumer.accept(c.variant(row, annot)));
+    }
+
+    public void project(DatasetID dataset, Chromosome chr, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                        VariantFilter filter, Field sortBy, Boolean desc, List<Field> fields, Consumer<Object[]> consumer) {
+        ColumnarChromosome c = chromosome(dataset, chr);
+        if (c == null)
+            return;
+
+        rows(c, start, end, lim, skip, after, filter, sortBy, desc, row -> {
+            Object[] values = new Object[fields.size()];
+            for (int i = 0; i < values.length; ++i)
+                values[i] = c.value(fields.get(i), row);
+            consumer.accept(values);
+        });
+    }
+
+    /**
+     * Selects the rows of a query, only the columns of filters and sortBy are read.
+     */
+    private static void rows(ColumnarChromosome c, Integer start, Integer end, Integer lim, Integer skip, Cursor after,
+                             VariantFilter filter, Field sortBy, Boolean desc, IntConsumer consumer) {
+        int from = c.lowerBound(start);
+        int to = c.lowerBound(end + 1L);
+        if (after != null)
+            from = Math.max(from, c.after(after));
+        int offset = (skip != null && skip > 0) ? skip : 0;
+
+        if (sortBy == null && filter == null) {
+            long last = Math.min((long) to, (long) from + offset + lim);
+            for (int row = from + offset; row < last; ++row)
+                consumer.accept(row);
+            return;
+        }
+
+        if (sortBy == null) {
+            long seen = 0;
+            for (int row = from; row < to && seen < (long) offset + lim; ++row) {
+                if ((row & 0xFFFF) == 0)
+                    Deadline.check(); // a sparse filter can walk the whole chromosome
+                if (!matches(c, row, filter))
+                    continue;
+                if (seen++ >= offset)
+                    consumer.accept(row);
+            }
+            return;
+        }
+
+        List<Integer> rows = new ArrayList<>(Math.max(0, to - from));
+        for (int row = from; row < to; ++row) {
+            if ((row & 0xFFFF) == 0)
+                Deadline.check();
+            if (filter == null || matches(c, row, filter))
+                rows.add(row);
+        }
+        Comparator<Integer> order = (a, b) -> Field.compare(c.value(sortBy, a), c.value(sortBy, b));
+        rows.sort(desc ? order.reversed() : order);
+        rows.stream().skip(offset).limit(lim).forEach(consumer::accept);
+    }
+
+    private static boolean matches(ColumnarChromosome c, int row, VariantFilter filter) {
+        return filter.matches(f -> c.value(f, row));
+    }
+
+    /**
+     * Maps a chromosome of the dataset's store on first use, null if the store has no variants on it. Datasets sharing
+     * a directory share the mapping.
+     */
+    private ColumnarChromosome chromosome(DatasetID dataset, Chromosome chr) {
+        Path store = Paths.get(ReadConfig.getProp("mmapDir", dataset, "/data/ssvs"));
+        Map<Chromosome, Optional<ColumnarChromosome>> chromosomes = stores.computeIfAbsent(store, k -> new ConcurrentHashMap<>());
+        return chromosomes.computeIfAbsent(chr, k -> {
+            try {
+                return Optional.ofNullable(ColumnarChromosome.open(store, k));
+            } catch (IOException e) {
+                throw new EJBException(e);
+            }
+        }).orElse(null);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Cache statistics, see /admin/cache.
+ */
+@XmlRootElement(name = "CacheInfo")
+public class CacheInfo {
+
+    private String name;
+    private Long entries;
+    private Long hitCount;
+    private Long missCount;
+    private Double hitRate;
+    private Long evictionCount;
+    private Long sizeBytes;  // estimated
+    private Long maxBytes;
+
+    public CacheInfo() {
+        // needed for JAXB
+    }
+
+    public CacheInfo(String name, Long entries, Long hitCount, Long missCount, Double hitRate, Long evictionCount,
+                     Long sizeBytes, Long maxBytes) {
+        this.name = name;
+        this.entries = entries;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.hitRate = hitRate;
+        this.evictionCount = evictionCount;
+        this.sizeBytes = sizeBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getEntries() {
+        return entries;
+    }
+
+    public void setEntries(Long entries) {
+        this.entries = entries;
+    }
+
+    public Long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(Long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public Long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(Long missCount) {
+        this.missCount = missCount;
+    }
+
+    public Double getHitRate() {
+        return hitRate;
+    }
+
+    public void setHitRate(Double hitRate) {
+        this.hitRate = hitRate;
+    }
+
+    public Long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(Long evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    public Long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(Long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public Long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(Long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -51,6 +51,22 @@ public enum Chromosome {
         return null;
     }
 
+    /**
+     * Position in karyotype order: 1 to 22, X, Y, MT. Declaration order is kept for parsing.
+     */
+    public int rank() {
+        switch (this) {
+            case CHRX:
+                return 23;
+            case CHRY:
+                return 24;
+            case CHRMT:
+                return 25;
+            default:
+                return Integer.parseInt(chrom);
+        }
+    }
+
     @Override
     public String toString() {
         return chrom;
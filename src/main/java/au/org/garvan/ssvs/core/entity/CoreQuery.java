@@ -25,6 +25,8 @@
 
 package au.org.garvan.ssvs.core.entity;
 
+import java.util.List;
+
 public class CoreQuery {
 
     private DatasetID  dataset;
@@ -33,26 +35,38 @@ public class CoreQuery {
     private Integer positionEnd;
     private Integer limit;
     private Integer skip;
+    private Cursor cursor;
     private Boolean annot;
     private Field   sortBy;
     private Boolean descend;
     private Boolean count;
-    private Allele alt;
-    private Allele ref;
+    private String alt;  // full allele, null for any
+    private String ref;  // full allele, null for any
     private Boolean beacon;
+    private Format format;
+    private List<Region> regions;  // batch query
+    private List<Region> ranges;  // multi-chromosome query, one limit over all of them
+    private List<VariantKey> keys;  // batch variant lookup
+    private VariantFilter filter;
+    private List<Field> fields;  // projection, null for whole rows
+    private List<String> rsids;  // dbSNP ids query
+    private String gene;  // resolved to chromosome and positions or ranges, see GeneIndex
+    private Integer bin;  // density query bin size, bp
+    private Boolean binAf;  // density query, mean and max AF per bin too
     private String jwt;
 
     public CoreQuery() {
         // needed for JAXB
     }
 
-    public CoreQuery(DatasetID dataset, Chromosome chromosome, Integer positionStart, Integer positionEnd, Integer limit, Integer skip, Boolean annot, Field sortBy, Boolean descend, Boolean count, Allele alt, Allele ref, Boolean beacon, String jwt) {
+    public CoreQuery(DatasetID dataset, Chromosome chromosome, Integer positionStart, Integer positionEnd, Integer limit, Integer skip, Cursor cursor, Boolean annot, Field sortBy, Boolean descend, Boolean count, String alt, String ref, Boolean beacon, Format format, String jwt) {
         this.dataset = dataset;
         this.chromosome = chromosome;
         this.positionStart = positionStart;
         this.positionEnd = positionEnd;
         this.limit = limit;
         this.skip = skip;
+        this.cursor = cursor;
         this.annot = annot;
         this.sortBy = sortBy;
         this.descend = descend;
@@ -60,6 +74,7 @@ public class CoreQuery {
         this.alt = alt;
         this.ref = ref;
         this.beacon = beacon;
+        this.format = format;
         this.jwt = jwt;
     }
 
@@ -111,6 +126,14 @@ public class CoreQuery {
         this.skip = skip;
     }
 
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
     public Boolean getAnnot() {
         return annot;
     }
@@ -143,19 +166,19 @@ public class CoreQuery {
         this.count = count;
     }
 
-    public Allele getAlt() {
+    public String getAlt() {
         return alt;
     }
 
-    public void setAlt(Allele alt) {
+    public void setAlt(String alt) {
         this.alt = alt;
     }
 
-    public Allele getRef() {
+    public String getRef() {
         return ref;
     }
 
-    public void setRef(Allele ref) {
+    public void setRef(String ref) {
         this.ref = ref;
     }
 
@@ -167,6 +190,86 @@ public class CoreQuery {
         this.beacon = beacon;
     }
 
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(List<Region> regions) {
+        this.regions = regions;
+    }
+
+    public List<Region> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<Region> ranges) {
+        this.ranges = ranges;
+    }
+
+    public List<VariantKey> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(List<VariantKey> keys) {
+        this.keys = keys;
+    }
+
+    public List<String> getRsids() {
+        return rsids;
+    }
+
+    public void setRsids(List<String> rsids) {
+        this.rsids = rsids;
+    }
+
+    public String getGene() {
+        return gene;
+    }
+
+    public void setGene(String gene) {
+        this.gene = gene;
+    }
+
+    public Integer getBin() {
+        return bin;
+    }
+
+    public void setBin(Integer bin) {
+        this.bin = bin;
+    }
+
+    public Boolean getBinAf() {
+        return binAf;
+    }
+
+    public void setBinAf(Boolean binAf) {
+        this.binAf = binAf;
+    }
+
+    public VariantFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(VariantFilter filter) {
+        this.filter = filter;
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<Field> fields) {
+        this.fields = fields;
+    }
+
     public String getJwt() {
         return jwt;
     }
@@ -37,7 +37,13 @@ public class CoreResponse {
     private CoreQuery coreQuery;
     private Long ssvsTimeMs;  // ms
     private List<Variant> variants;
+    private List<RegionResult> regions;  // batch query
+    private List<LookupResult> lookups;  // batch variant lookup, in request order
+    private List<DensityBin> bins;  // density query, non empty bins in position order
+    private List<Row> rows;  // projected variants, see CoreQuery#getFields()
     private Long total;  // total # variants
+    private String cursor;  // next page token, null on the last page
+    private Boolean exists;  // beacon query
     private Error error;
 
     public CoreResponse() {
@@ -84,6 +90,46 @@ public class CoreResponse {
         this.variants = variants;
     }
 
+    public List<RegionResult> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(List<RegionResult> regions) {
+        this.regions = regions;
+    }
+
+    public List<LookupResult> getLookups() {
+        return lookups;
+    }
+
+    public void setLookups(List<LookupResult> lookups) {
+        this.lookups = lookups;
+    }
+
+    public List<DensityBin> getBins() {
+        return bins;
+    }
+
+    public void setBins(List<DensityBin> bins) {
+        this.bins = bins;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<Row> rows) {
+        this.rows = rows;
+    }
+
+    public Boolean getExists() {
+        return exists;
+    }
+
+    public void setExists(Boolean exists) {
+        this.exists = exists;
+    }
+
     public Long getTotal() {
         return total;
     }
@@ -92,6 +138,14 @@ public class CoreResponse {
         this.total = total;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public Error getError() {
         return error;
     }
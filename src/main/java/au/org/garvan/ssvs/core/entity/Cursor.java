@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset pagination position: the last (chromosome, start, variant) a client has seen.
+ * Rows are ordered by (start, variant) within a chromosome, the next page starts right after this key.
+ */
+public class Cursor {
+
+    private Chromosome chromosome;
+    private int start;
+    private String variant;
+
+    public Cursor() {
+        // needed for JAXB
+    }
+
+    public Cursor(Chromosome chromosome, int start, String variant) {
+        this.chromosome = chromosome;
+        this.start = start;
+        this.variant = variant;
+    }
+
+    /**
+     * Opaque token handed out to clients.
+     */
+    public String encode() {
+        String key = chromosome.toString() + ":" + start + ":" + variant;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token produced by {@link #encode()}. A malformed token gives a cursor without chromosome,
+     * which doesn't match any query.
+     */
+    public static Cursor decode(String token) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            String[] a = key.split(":", 3);
+            if (a.length == 3)
+                return new Cursor(Chromosome.fromString(a[0]), Integer.parseInt(a[1]), a[2]);
+        } catch (IllegalArgumentException e) {
+            // falls through, NumberFormatException is an IllegalArgumentException too
+        }
+        return new Cursor(null, 0, null);
+    }
+
+    public Chromosome getChromosome() {
+        return chromosome;
+    }
+
+    public void setChromosome(Chromosome chromosome) {
+        this.chromosome = chromosome;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public void setVariant(String variant) {
+        this.variant = variant;
+    }
+}
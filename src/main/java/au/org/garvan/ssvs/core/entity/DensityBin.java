@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+/**
+ * Variants of one position bin of a density query. Bins are aligned to multiples of the bin size, the first and the
+ * last one are clipped to the query region. Mean and max AF are null unless asked for or without AF values.
+ */
+public class DensityBin {
+
+    private Integer start;
+    private Integer end;
+    private Long count;
+    private Double meanAf;
+    private Double maxAf;
+
+    public DensityBin() {
+        // needed for JAXB
+    }
+
+    public DensityBin(Integer start, Integer end, Long count, Double meanAf, Double maxAf) {
+        this.start = start;
+        this.end = end;
+        this.count = count;
+        this.meanAf = meanAf;
+        this.maxAf = maxAf;
+    }
+
+    /**
+     * Bin {@code bin} of size {@code binSize}, clipped to [regionStart, regionEnd].
+     */
+    public static DensityBin of(int bin, int binSize, int regionStart, int regionEnd, long count, Double meanAf,
+                                Double maxAf) {
+        long first = (long) bin * binSize;
+        return new DensityBin((int) Math.max(regionStart, first), (int) Math.min(regionEnd, first + binSize - 1), count,
+                              meanAf, maxAf);
+    }
+
+    public Integer getStart() {
+        return start;
+    }
+
+    public void setStart(Integer start) {
+        this.start = start;
+    }
+
+    public Integer getEnd() {
+        return end;
+    }
+
+    public void setEnd(Integer end) {
+        this.end = end;
+    }
+
+    public Long getCount() {
+        return count;
+    }
+
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+    public Double getMeanAf() {
+        return meanAf;
+    }
+
+    public void setMeanAf(Double meanAf) {
+        this.meanAf = meanAf;
+    }
+
+    public Double getMaxAf() {
+        return maxAf;
+    }
+
+    public void setMaxAf(Double maxAf) {
+        this.maxAf = maxAf;
+    }
+}
@@ -27,17 +27,45 @@ package au.org.garvan.ssvs.core.entity;
 
 public enum Field {
 
-    FIELD01("v"), FIELD02("chr"), FIELD03("start"), FIELD04("ref"), FIELD05("alt"),
-    FIELD06("rsid"), FIELD07("ac"), FIELD08("af"), FIELD09("nHomRef"), FIELD10("nHet"),
-    FIELD11("nHomVar"), FIELD12("type"), FIELD13("cato"), FIELD14("eigen"), FIELD15("sift"),
-    FIELD16("polyPhen"), FIELD17("hrcAF"), FIELD18("gnomadAF"), FIELD19("gnomadAF_AFR"), FIELD20("gnomadAF_AMR"),
-    FIELD21("gnomadAF_ASJ"), FIELD22("gnomadAF_EAS"), FIELD23("gnomadAF_FIN"), FIELD24("gnomadAF_NFE"), FIELD25("gnomadAF_OTHD"),
-    FIELD26("ensemblId"), FIELD27("consequences"), FIELD28("geneSymbol"), FIELD29("clinvar"), FIELD30("wasSplit");
+    FIELD01("v", "VARIANT", String.class),
+    FIELD02("chr", "CHROMOSOME", String.class),
+    FIELD03("start", "START", Integer.class),
+    FIELD04("ref", "REF", String.class),
+    FIELD05("alt", "ALT", String.class),
+    FIELD06("rsid", "RSID", String.class),
+    FIELD07("ac", "AC", Integer.class),
+    FIELD08("af", "AF", Double.class),
+    FIELD09("nHomRef", "nHomRef", Integer.class),
+    FIELD10("nHet", "nHet", Integer.class),
+    FIELD11("nHomVar", "nHomVar", Integer.class),
+    FIELD12("type", "TYPE", String.class),
+    FIELD13("cato", "CATO", String.class),
+    FIELD14("eigen", "eigen", String.class),
+    FIELD15("sift", "sift", String.class),
+    FIELD16("polyPhen", "polyPhen", String.class),
+    FIELD17("hrcAF", "hrcAF", Float.class),
+    FIELD18("gnomadAF", "gnomadAF", Float.class),
+    FIELD19("gnomadAF_AFR", "gnomadAF_AFR", Float.class),
+    FIELD20("gnomadAF_AMR", "gnomadAF_AMR", Float.class),
+    FIELD21("gnomadAF_ASJ", "gnomadAF_ASJ", Float.class),
+    FIELD22("gnomadAF_EAS", "gnomadAF_EAS", Float.class),
+    FIELD23("gnomadAF_FIN", "gnomadAF_FIN", Float.class),
+    FIELD24("gnomadAF_NFE", "gnomadAF_NFE", Float.class),
+    FIELD25("gnomadAF_OTHD", "gnomadAF_OTHD", Float.class),
+    FIELD26("ensemblId", "ensemblId", String.class),
+    FIELD27("consequences", "consequences", String.class),
+    FIELD28("geneSymbol", "geneSymbol", String.class),
+    FIELD29("clinvar", "clinvar", String.class),
+    FIELD30("wasSplit", "wasSplit", String.class);
 
     private final String field;
+    private final String column;
+    private final Class<?> type;
 
-    Field(String field) {
+    Field(String field, String column, Class<?> type) {
         this.field = field;
+        this.column = column;
+        this.type = type;
     }
 
     public static Field fromString(String text) {
@@ -51,6 +79,32 @@ public enum Field {
         return null;
     }
 
+    /**
+     * Column name in the summstats table.
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Java type of the value, one of String, Integer, Double or Float.
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Order of values of one field, nulls last, for backends which sort by a field themselves.
+     */
+    @SuppressWarnings("unchecked")
+    public static int compare(Object a, Object b) {
+        if (a == null)
+            return (b == null) ? 0 : 1;
+        if (b == null)
+            return -1;
+        return ((Comparable<Object>) a).compareTo(b); // values of one field are of its type
+    }
+
     @Override
     public String toString() {
         return field;
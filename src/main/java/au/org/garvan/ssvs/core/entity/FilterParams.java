@@ -0,0 +1,49 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import javax.ws.rs.QueryParam;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Raw variant filters of a request, query parameters on GET and a <b>filter</b> object on POST.
+ * AF ranges are written <i>min:max</i>, either bound can be left out, e.g. <i>gnomadAF=:0.001</i>.
+ */
+public class FilterParams {
+    @QueryParam("af") @XmlElement public String af;
+    @QueryParam("gnomadAF") @XmlElement public String gnomadAF;
+    @QueryParam("gnomadAF_AFR") @XmlElement public String gnomadAF_AFR;
+    @QueryParam("gnomadAF_AMR") @XmlElement public String gnomadAF_AMR;
+    @QueryParam("gnomadAF_ASJ") @XmlElement public String gnomadAF_ASJ;
+    @QueryParam("gnomadAF_EAS") @XmlElement public String gnomadAF_EAS;
+    @QueryParam("gnomadAF_FIN") @XmlElement public String gnomadAF_FIN;
+    @QueryParam("gnomadAF_NFE") @XmlElement public String gnomadAF_NFE;
+    @QueryParam("gnomadAF_OTHD") @XmlElement public String gnomadAF_OTHD;
+    @QueryParam("type") @XmlElement public String type;
+    @QueryParam("consequences") @XmlElement public String consequences;
+    @QueryParam("clinvar") @XmlElement public Boolean clinvar;
+    @QueryParam("geneSymbol") @XmlElement public String geneSymbol;
+}
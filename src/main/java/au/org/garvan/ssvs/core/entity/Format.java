@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+/**
+ * Response format. JSON is the buffered {@link CoreResponse} envelope, everything else is streamed row by row.
+ */
+public enum Format {
+    JSON("json", "application/json"), NDJSON("ndjson", "application/x-ndjson"), TSV("tsv", "text/tab-separated-values"),
+    PROTOBUF("protobuf", "application/x-protobuf"),  // length-delimited Variant messages, see conf/variant.proto
+    ARROW("arrow", "application/vnd.apache.arrow.stream");
+
+    private final String format;
+    private final String mediaType;
+
+    Format(String format, String mediaType) {
+        this.format = format;
+        this.mediaType = mediaType;
+    }
+
+    public static Format fromString(String text) {
+        if (text != null) {
+            for (Format f : Format.values()) {
+                if (text.equalsIgnoreCase(f.toString())) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static Format fromMediaType(String text) {
+        if (text != null) {
+            for (Format f : Format.values()) {
+                if (text.equalsIgnoreCase(f.getMediaType())) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public boolean isStreaming() {
+        return this != JSON;
+    }
+
+    @Override
+    public String toString() {
+        return format;
+    }
+}
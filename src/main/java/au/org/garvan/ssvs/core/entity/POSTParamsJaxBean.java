@@ -27,6 +27,7 @@ package au.org.garvan.ssvs.core.entity;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
 
 @XmlRootElement
 public class POSTParamsJaxBean {
@@ -38,9 +39,34 @@ public class POSTParamsJaxBean {
     @XmlElement public String dataset;
     @XmlElement public Integer limit;
     @XmlElement public Integer skip;
+    @XmlElement public String cursor;
     @XmlElement public Boolean annot;
     @XmlElement public String sortBy;
     @XmlElement public Boolean descend;
     @XmlElement public Boolean count;
     @XmlElement public Boolean beacon;
+    @XmlElement public String format;
+    @XmlElement public String fields;
+    @XmlElement public String rsid;
+    @XmlElement public String gene;
+    @XmlElement public List<RegionParam> regions;
+    @XmlElement public List<VariantParam> variants;
+    @XmlElement public FilterParams filter;
+
+    public static class RegionParam {
+        @XmlElement public String chromosome;
+        @XmlElement public Integer positionStart;
+        @XmlElement public Integer positionEnd;
+    }
+
+    /**
+     * Either <b>v</b>, the variant id <i>chr-pos-ref-alt</i>, or chromosome, position, ref and alt.
+     */
+    public static class VariantParam {
+        @XmlElement public String v;
+        @XmlElement public String chromosome;
+        @XmlElement public Integer position;
+        @XmlElement public String ref;
+        @XmlElement public String alt;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import java.util.Objects;
+
+/**
+ * Inclusive range of a numeric field, a null bound is open.
+ */
+public class RangeFilter {
+
+    private Field field;
+    private Double min;
+    private Double max;
+
+    public RangeFilter() {
+        // needed for JAXB
+    }
+
+    public RangeFilter(Field field, Double min, Double max) {
+        this.field = field;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * FLOAT fields are compared in float precision, as the stores compare them, so a row passing a pushed down
+     * predicate passes here too.
+     */
+    public boolean matches(Object value) {
+        if (value == null)
+            return false;
+        if (field != null && field.getType() == Float.class) {
+            float f = ((Number) value).floatValue();
+            return (min == null || f >= min.floatValue()) && (max == null || f <= max.floatValue());
+        }
+        double d = ((Number) value).doubleValue();
+        return (min == null || d >= min) && (max == null || d <= max);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public void setField(Field field) {
+        this.field = field;
+    }
+
+    public Double getMin() {
+        return min;
+    }
+
+    public void setMin(Double min) {
+        this.min = min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public void setMax(Double max) {
+        this.max = max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RangeFilter)) return false;
+        RangeFilter r = (RangeFilter) o;
+        return field == r.field && Objects.equals(min, r.min) && Objects.equals(max, r.max);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(field, min, max);
+    }
+
+    @Override
+    public String toString() {
+        return field + "[" + min + ":" + max + "]";
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+/**
+ * Chromosome region, both positions inclusive.
+ */
+public class Region {
+
+    private Chromosome chromosome;
+    private Integer positionStart;
+    private Integer positionEnd;
+
+    public Region() {
+        // needed for JAXB
+    }
+
+    public Region(Chromosome chromosome, Integer positionStart, Integer positionEnd) {
+        this.chromosome = chromosome;
+        this.positionStart = positionStart;
+        this.positionEnd = positionEnd;
+    }
+
+    public Chromosome getChromosome() {
+        return chromosome;
+    }
+
+    public void setChromosome(Chromosome chromosome) {
+        this.chromosome = chromosome;
+    }
+
+    public Integer getPositionStart() {
+        return positionStart;
+    }
+
+    public void setPositionStart(Integer positionStart) {
+        this.positionStart = positionStart;
+    }
+
+    public Integer getPositionEnd() {
+        return positionEnd;
+    }
+
+    public void setPositionEnd(Integer positionEnd) {
+        this.positionEnd = positionEnd;
+    }
+}
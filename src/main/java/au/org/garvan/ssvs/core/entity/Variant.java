@@ -421,4 +421,43 @@ public class Variant implements Serializable {
     public void setWasSplit(String wasSplit) {
         this.wasSplit = wasSplit;
     }
-}
+
+    /**
+     * Value of a column by its {@link Field}.
+     */
+    public Object valueOf(Field field) {
+        switch (field) {
+            case FIELD01: return v;
+            case FIELD02: return chr;
+            case FIELD03: return start;
+            case FIELD04: return ref;
+            case FIELD05: return alt;
+            case FIELD06: return rsid;
+            case FIELD07: return ac;
+            case FIELD08: return af;
+            case FIELD09: return nHomRef;
+            case FIELD10: return nHet;
+            case FIELD11: return nHomVar;
+            case FIELD12: return type;
+            case FIELD13: return cato;
+            case FIELD14: return eigen;
+            case FIELD15: return sift;
+            case FIELD16: return polyPhen;
+            case FIELD17: return hrcAF;
+            case FIELD18: return gnomadAF;
+            case FIELD19: return gnomadAF_AFR;
+            case FIELD20: return gnomadAF_AMR;
+            case FIELD21: return gnomadAF_ASJ;
+            case FIELD22: return gnomadAF_EAS;
+            case FIELD23: return gnomadAF_FIN;
+            case FIELD24: return gnomadAF_NFE;
+            case FIELD25: return gnomadAF_OTHD;
+            case FIELD26: return ensemblId;
+            case FIELD27: return consequences;
+            case FIELD28: return geneSymbol;
+            case FIELD29: return clinvar;
+            case FIELD30: return wasSplit;
+            default: return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Normalised variant filters, all of them have to match. Backends turn them into predicates where they can and
+ * use {@link #matches(Function)} for the rest.
+ * <p>
+ * String filters ignore case, as MySQL compares them under its default collation, so every backend returns the same
+ * rows.
+ */
+public class VariantFilter {
+
+    private List<RangeFilter> ranges = new ArrayList<>();
+    private String type;  // exact, any case
+    private String consequences;  // substring, any case
+    private Boolean clinvar;  // has a ClinVar annotation or not
+    private String geneSymbol;  // exact, any case
+    private String ref;  // exact, whole allele, upper case
+    private String alt;  // exact, whole allele, upper case
+    private String malformed;  // reason the filter can't be used, not serialised
+
+    public VariantFilter() {
+        // needed for JAXB
+    }
+
+    public boolean matchesAll() {
+        return ranges.isEmpty() && type == null && consequences == null && clinvar == null && geneSymbol == null &&
+            ref == null && alt == null;
+    }
+
+    /**
+     * Evaluates the filter over a row, {@code value} returns the value of a field.
+     */
+    public boolean matches(Function<Field, Object> value) {
+        for (RangeFilter r : ranges)
+            if (!r.matches(value.apply(r.getField())))
+                return false;
+        if (type != null && !equalsIgnoreCase(type, value.apply(Field.FIELD12)))
+            return false;
+        if (geneSymbol != null && !equalsIgnoreCase(geneSymbol, value.apply(Field.FIELD28)))
+            return false;
+        if (ref != null && !equalsIgnoreCase(ref, value.apply(Field.FIELD04)))
+            return false;
+        if (alt != null && !equalsIgnoreCase(alt, value.apply(Field.FIELD05)))
+            return false;
+        if (consequences != null) {
+            Object c = value.apply(Field.FIELD27);
+            if (c == null || !c.toString().toLowerCase(Locale.ROOT).contains(consequences.toLowerCase(Locale.ROOT)))
+                return false;
+        }
+        if (clinvar != null) {
+            Object c = value.apply(Field.FIELD29);
+            if (clinvar != (c != null && !c.toString().isEmpty()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(String filter, Object value) {
+        return value != null && filter.equalsIgnoreCase(value.toString());
+    }
+
+    /**
+     * Fields the filter reads.
+     */
+    public List<Field> fields() {
+        List<Field> fields = new ArrayList<>();
+        if (ref != null)
+            fields.add(Field.FIELD04);
+        if (alt != null)
+            fields.add(Field.FIELD05);
+        for (RangeFilter r : ranges)
+            fields.add(r.getField());
+        if (type != null)
+            fields.add(Field.FIELD12);
+        if (consequences != null)
+            fields.add(Field.FIELD27);
+        if (geneSymbol != null)
+            fields.add(Field.FIELD28);
+        if (clinvar != null)
+            fields.add(Field.FIELD29);
+        return fields;
+    }
+
+    public String malformed() {
+        return malformed;
+    }
+
+    public void malformed(String reason) {
+        this.malformed = reason;
+    }
+
+    public List<RangeFilter> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<RangeFilter> ranges) {
+        this.ranges = ranges;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getConsequences() {
+        return consequences;
+    }
+
+    public void setConsequences(String consequences) {
+        this.consequences = consequences;
+    }
+
+    public Boolean getClinvar() {
+        return clinvar;
+    }
+
+    public void setClinvar(Boolean clinvar) {
+        this.clinvar = clinvar;
+    }
+
+    public String getGeneSymbol() {
+        return geneSymbol;
+    }
+
+    public void setGeneSymbol(String geneSymbol) {
+        this.geneSymbol = geneSymbol;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public void setRef(String ref) {
+        this.ref = ref;
+    }
+
+    public String getAlt() {
+        return alt;
+    }
+
+    public void setAlt(String alt) {
+        this.alt = alt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VariantFilter)) return false;
+        VariantFilter f = (VariantFilter) o;
+        return ranges.equals(f.ranges) && Objects.equals(type, f.type) && Objects.equals(consequences, f.consequences) &&
+            Objects.equals(clinvar, f.clinvar) && Objects.equals(geneSymbol, f.geneSymbol) && Objects.equals(ref, f.ref) &&
+            Objects.equals(alt, f.alt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ranges, type, consequences, clinvar, geneSymbol, ref, alt);
+    }
+
+    @Override
+    public String toString() {
+        return ranges + ":" + type + ":" + consequences + ":" + clinvar + ":" + geneSymbol + ":" + ref + ":" + alt;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.rest;
+
+import au.org.garvan.ssvs.core.entity.CacheInfo;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.Error;
+import au.org.garvan.ssvs.core.service.BeaconFilter;
+import au.org.garvan.ssvs.core.service.CoreService;
+import au.org.garvan.ssvs.core.service.CountIndex;
+import au.org.garvan.ssvs.core.service.RegionCache;
+import au.org.garvan.ssvs.core.util.CoreJWT;
+import au.org.garvan.ssvs.core.util.CoreQueryUtils;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+
+import javax.inject.Inject;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+/**
+ * Operational end points. Every call needs a JWT carrying the <i>jwtAdminAccess</i> permission.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@Path("/admin")
+@Produces(MediaType.APPLICATION_JSON)
+public class AdminResource {
+
+    @Inject
+    private RegionCache cache;
+
+    @Inject
+    private CoreService service;
+
+    @Inject
+    private CountIndex countIndex;
+
+    @Inject
+    private BeaconFilter beaconFilter;
+
+    /**
+     * Hit ratio, evictions and estimated memory use of the result caches, and how many queries were coalesced.
+     */
+    @GET
+    @Path("/cache")
+    public Response cacheInfo(@Context HttpHeaders headers) {
+        Response denied = authorize(headers);
+        if (denied != null)
+            return denied;
+        List<CacheInfo> info = cache.getInfo();
+        info.addAll(service.getCoalescingInfo());
+        return Response.ok(new GenericEntity<List<CacheInfo>>(info) {}).build();
+    }
+
+    /**
+     * Drops cached results, the count index and the beacon filter of a dataset after it has been reloaded.
+     */
+    @DELETE
+    @Path("/cache/{dataset}")
+    public Response invalidate(@PathParam("dataset") String dataset, @Context HttpHeaders headers) {
+        Response denied = authorize(headers);
+        if (denied != null)
+            return denied;
+
+        DatasetID id = DatasetID.fromString(dataset);
+        if (id == null)
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(new Error("Unknown dataset", dataset)).build();
+
+        cache.invalidate(id);
+        countIndex.invalidate(id);
+        beaconFilter.invalidate(id);
+        return Response.ok(new GenericEntity<List<CacheInfo>>(cache.getInfo()) {}).build();
+    }
+
+    private static Response authorize(HttpHeaders headers) {
+        String jwt = CoreQueryUtils.getJwt(headers.getHeaderString(HttpHeaders.AUTHORIZATION));
+        if (jwt == null)
+            return Response.status(Response.Status.UNAUTHORIZED)
+                .entity(new Error("Unauthorized", "JWT is required")).build();
+        try {
+            CoreJWT.verifyJWT(jwt, ReadConfig.getProp().getProperty("jwtAdminAccess", "ssvs/admin"));
+        } catch (JWTVerificationException e) {
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(new Error("JWT verification failed", e.getMessage())).build();
+        }
+        return null;
+    }
+}
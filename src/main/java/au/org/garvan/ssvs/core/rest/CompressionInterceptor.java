@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.rest;
+
+import au.org.garvan.ssvs.core.util.Compression;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.BiConsumer;
+
+/**
+ * Compresses response bodies as negotiated by {@link Compression#negotiate(String)}. The body is held back until it
+ * reaches {@link Compression#threshold()} bytes, so short responses go out as is. Responses which already have a
+ * Content-Encoding (precompressed cache hits) pass through.
+ * <p>
+ * A resource can set the request property {@link #BODY_SINK} to a {@code BiConsumer<String, byte[]>}, it then gets the
+ * encoding and the compressed bytes of a complete response of up to <i>cache.maxBodyKb</i>.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER) // inside of MetricsInterceptor, so compression counts as serialise
+public class CompressionInterceptor implements WriterInterceptor {
+
+    public static final String BODY_SINK = "ssvs.compressedBody";
+
+    private static final int MAX_BODY = ReadConfig.getInt("cache.maxBodyKb", 4096) * 1024;
+
+    @Context
+    private HttpHeaders headers;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        MultivaluedMap<String, Object> responseHeaders = context.getHeaders();
+        responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = responseHeaders.containsKey(HttpHeaders.CONTENT_ENCODING) ? null :
+            Compression.negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        BiConsumer<String, byte[]> sink = (BiConsumer<String, byte[]>) context.getProperty(BODY_SINK);
+        OutputStream original = context.getOutputStream();
+        DeferredOutputStream out = new DeferredOutputStream(context, original, encoding, sink != null);
+        context.setOutputStream(out);
+        context.proceed();
+        out.finish();
+        context.setOutputStream(original);
+
+        if (sink != null && out.copy != null)
+            sink.accept(encoding, out.copy.toByteArray());
+    }
+
+    /**
+     * Buffers up to the threshold, then switches the response to the compressed encoding. Headers are still open
+     * while nothing has reached the container's stream.
+     */
+    private static class DeferredOutputStream extends OutputStream {
+        private final WriterInterceptorContext context;
+        private final OutputStream original;
+        private final String encoding;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream(Compression.threshold());
+        private OutputStream compressed;
+        private ByteArrayOutputStream copy;
+
+        DeferredOutputStream(WriterInterceptorContext context, OutputStream original, String encoding, boolean copy) {
+            this.context = context;
+            this.original = original;
+            this.encoding = encoding;
+            this.copy = copy ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compressed != null) {
+                compressed.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= Compression.threshold())
+                start();
+        }
+
+        private void start() throws IOException {
+            context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            compressed = Compression.compress(new Target(), encoding);
+            pending.writeTo(compressed);
+            pending = null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (compressed != null)
+                compressed.flush();
+        }
+
+        /**
+         * Completes the body, the container's stream stays open.
+         */
+        void finish() throws IOException {
+            if (compressed != null) {
+                compressed.close();
+            } else {
+                copy = null; // not worth caching
+                pending.writeTo(original);
+            }
+        }
+
+        /**
+         * Container's stream, with a copy of what goes out while it's small enough to be cached.
+         */
+        private class Target extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                original.write(b, off, len);
+                if (copy != null) {
+                    if (copy.size() + len > MAX_BODY)
+                        copy = null;
+                    else
+                        copy.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                original.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                original.flush();
+            }
+        }
+    }
+}
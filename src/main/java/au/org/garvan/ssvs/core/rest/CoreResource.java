@@ -26,17 +26,31 @@
 package au.org.garvan.ssvs.core.rest;
 
 import au.org.garvan.ssvs.core.entity.CoreResponse;
+import au.org.garvan.ssvs.core.entity.FilterParams;
+import au.org.garvan.ssvs.core.entity.Format;
 import au.org.garvan.ssvs.core.entity.POSTParamsJaxBean;
+import au.org.garvan.ssvs.core.entity.Region;
 import au.org.garvan.ssvs.core.service.CoreService;
+import au.org.garvan.ssvs.core.service.GeneIndex;
 import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.service.QueryExecutor;
+import au.org.garvan.ssvs.core.service.RegionCache;
+import au.org.garvan.ssvs.core.util.Compression;
 import au.org.garvan.ssvs.core.util.CoreQueryUtils;
+import au.org.garvan.ssvs.core.util.Metrics;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 /**
  * VSAL Core rest resource.
@@ -45,50 +59,256 @@ import java.util.List;
  * @version 1.0
  */
 @Path("/search")
-@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN})
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_PLAIN, "application/x-ndjson",
+           "text/tab-separated-values", "application/x-protobuf", "application/vnd.apache.arrow.stream"})
 public class CoreResource {
 
     @Inject
     private CoreService service;
 
+    @Inject
+    private RegionCache cache;
+
+    @Inject
+    private QueryExecutor executor;
+
+    @Inject
+    private GeneIndex genes;
+
+    @Context
+    private HttpServletRequest request;
+
     @GET
-    public CoreResponse query(@QueryParam("chr") String chr,
-                              @QueryParam("start") Integer positionStart,
-                              @QueryParam("end") Integer positionEnd,
+    public void query(@QueryParam("chr") String chr,
+                              @QueryParam("start") String positionStart,
+                              @QueryParam("end") String positionEnd,
                               @QueryParam("alt") String alt,
                               @QueryParam("ref") String ref,
                               @QueryParam("limit") Integer lim,
                               @QueryParam("skip") Integer skip,
+                              @QueryParam("cursor") String cursor,
                               @QueryParam("annot") Boolean annot,
                               @QueryParam("sortBy") String sortBy,
                               @QueryParam("descend") Boolean descend,
                               @QueryParam("count") Boolean count,
                               @QueryParam("beacon") Boolean beacon,
                               @QueryParam("dataset") String dataset,
-                              @Context HttpHeaders headers) {
+                              @QueryParam("format") String format,
+                              @QueryParam("fields") String fields,
+                              @QueryParam("rsid") String rsid,
+                              @QueryParam("gene") String gene,
+                              @BeanParam FilterParams filter,
+                              @Context HttpHeaders headers,
+                              @Suspended AsyncResponse response) {
 
+        long start = System.nanoTime();
         List<String> authzScheme = headers.getRequestHeader("Authorization");
         String authz = (authzScheme != null && !authzScheme.isEmpty()) ? authzScheme.get(0) : null;
-        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(dataset, chr, positionStart, positionEnd, alt, ref, lim, skip, annot,
-                                                          sortBy, descend, count, beacon, authz);
-        return service.query(coreQuery);
+        List<Region> ranges = CoreQueryUtils.getRanges(chr, positionStart, positionEnd);
+        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(dataset, (ranges == null) ? chr : null,
+                                                          CoreQueryUtils.getPosition(positionStart), CoreQueryUtils.getPosition(positionEnd),
+                                                          alt, ref, lim, skip, cursor, annot, sortBy, descend, count, beacon,
+                                                          getFormat(format, headers), authz);
+        coreQuery.setRanges(ranges);
+        coreQuery.setFilter(CoreQueryUtils.getFilter(filter, ref, alt));
+        coreQuery.setFields(CoreQueryUtils.getFields(fields));
+        coreQuery.setRsids(CoreQueryUtils.getRsids(rsid));
+        coreQuery.setGene(CoreQueryUtils.getGene(gene));
+        genes.resolve(coreQuery);
+        Metrics.time("normalise", coreQuery.getDataset(), coreQuery.getAnnot(), Metrics.OK, start);
+        dispatch(coreQuery, headers, response);
     }
 
     /**
      * VSAL REST end point: /find
      * <p>
-     * Either <b>chromosome</b> or <b>dbSNP</b> or <b>pheno</b> is required. <b>dataset</b> is always required. Everything else is optional.
+     * Either <b>chromosome</b> or <b>rsid</b> or <b>gene</b> or <b>pheno</b> is required. <b>dataset</b> is always required. Everything else is optional.
+     * <p>
+     * <b>format</b> (or Accept header) <i>ndjson</i>, <i>tsv</i>, <i>protobuf</i> or <i>arrow</i> streams rows instead of a
+     * {@link CoreResponse}.
+     * <p>
+     * <b>filter</b> keeps matching variants only, see {@link FilterParams}; on GET its fields are query parameters.
+     * <p>
+     * <b>fields</b> is a comma separated list of columns (e.g. <i>v,start,af</i>), only those are read and returned.
+     * <p>
+     * <b>rsid</b> is a comma separated list of dbSNP ids (e.g. <i>rs6054257,rs1801133</i>), their variants are looked up
+     * in the store's rsID index instead of a region, in karyotype order, without cursor, skip or sortBy.
+     * <p>
+     * <b>gene</b> is a gene symbol (e.g. <i>BRCA2</i>) standing for its locus in the dataset's gene annotation, see
+     * {@link GeneIndex}; it replaces <b>chromosome</b>, <b>start</b> and <b>end</b>, so the query runs as the same region
+     * query would. Add <b>geneSymbol</b> to the filter to keep variants annotated with the gene only.
+     * <p>
+     * <b>ref</b> and <b>alt</b> (<b>refAllele</b>, <b>altAllele</b> on POST) keep variants with exactly these alleles,
+     * indels included; with <b>alt</b> a missing <b>end</b> is <b>start</b>, i.e. a single variant lookup.
+     * <p>
+     * <b>chromosome</b> can be a comma separated list or <i>all</i>, positions then are lists of the same length, single
+     * positions or left out for whole chromosomes; on POST <b>regions</b> can be given instead. Such a query is read per
+     * chromosome in parallel, its rows come in karyotype order under one <b>limit</b>, without cursor, skip or sortBy.
      * <p>
-     * @return {@link CoreResponse}
+     * Answers with {@link CoreResponse}, or 503 with Retry-After when the query's lane is full or the query times out,
+     * see {@link QueryExecutor}.
      */
     @POST
     @Consumes({"application/json"})
-    public CoreResponse queryPost(POSTParamsJaxBean params, @Context HttpHeaders headers) {
+    public void queryPost(POSTParamsJaxBean params, @Context HttpHeaders headers, @Suspended AsyncResponse response) {
+        long start = System.nanoTime();
         List<String> authzScheme = headers.getRequestHeader("Authorization");
         String authz = (authzScheme != null && !authzScheme.isEmpty()) ? authzScheme.get(0) : null;
-        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(params.dataset,params.chromosome, params.positionStart, params.positionEnd,
-                                                          params.altAllele, params.refAllele, params.limit, params.skip, params.annot,
-                                                          params.sortBy, params.descend, params.count, params.beacon, authz);
-        return service.query(coreQuery);
+        List<Region> ranges = (params.regions != null) ? CoreQueryUtils.getRegions(params.regions)
+            : CoreQueryUtils.getRanges(params.chromosome, Objects.toString(params.positionStart, null),
+                                       Objects.toString(params.positionEnd, null));
+        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(params.dataset, (ranges == null) ? params.chromosome : null,
+                                                          params.positionStart, params.positionEnd,
+                                                          params.altAllele, params.refAllele, params.limit, params.skip, params.cursor,
+                                                          params.annot, params.sortBy, params.descend, params.count, params.beacon,
+                                                          getFormat(params.format, headers), authz);
+        coreQuery.setRanges(ranges);
+        coreQuery.setFilter(CoreQueryUtils.getFilter(params.filter, params.refAllele, params.altAllele));
+        coreQuery.setFields(CoreQueryUtils.getFields(params.fields));
+        coreQuery.setRsids(CoreQueryUtils.getRsids(params.rsid));
+        coreQuery.setGene(CoreQueryUtils.getGene(params.gene));
+        genes.resolve(coreQuery);
+        Metrics.time("normalise", coreQuery.getDataset(), coreQuery.getAnnot(), Metrics.OK, start);
+        dispatch(coreQuery, headers, response);
+    }
+
+    /**
+     * VSAL REST end point: /search/regions
+     * <p>
+     * Batch query, <b>dataset</b> and a list of <b>regions</b> (chromosome, positionStart, positionEnd) are required.
+     * <b>limit</b> applies to every region, <b>annot</b> and <b>beacon</b> are optional.
+     * <p>
+     * Answers with {@link CoreResponse} holding per-region variants, always in the expensive lane of {@link QueryExecutor}.
+     */
+    @POST
+    @Path("/regions")
+    @Consumes({"application/json"})
+    @Produces({MediaType.APPLICATION_JSON})
+    public void queryRegions(POSTParamsJaxBean params, @Context HttpHeaders headers, @Suspended AsyncResponse response) {
+        long start = System.nanoTime();
+        List<String> authzScheme = headers.getRequestHeader("Authorization");
+        String authz = (authzScheme != null && !authzScheme.isEmpty()) ? authzScheme.get(0) : null;
+        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(params.dataset, null, null, null, null, null, params.limit, 0, null,
+                                                          params.annot, null, null, false, params.beacon, Format.JSON, authz);
+        coreQuery.setRegions(CoreQueryUtils.getRegions(params.regions));
+        coreQuery.setFilter(CoreQueryUtils.getFilter(params.filter));
+        Metrics.time("normalise", coreQuery.getDataset(), coreQuery.getAnnot(), Metrics.OK, start);
+        request.setAttribute(MetricsInterceptor.QUERY, coreQuery);
+        executor.submit(coreQuery, response, () -> service.queryRegions(coreQuery));
+    }
+
+    /**
+     * VSAL REST end point: /search/variants
+     * <p>
+     * Batch lookup, <b>dataset</b> and a list of <b>variants</b> are required, each either <b>v</b>
+     * (<i>chr-pos-ref-alt</i>) or <b>chromosome</b>, <b>position</b>, <b>ref</b> and <b>alt</b>. <b>annot</b> is optional.
+     * <p>
+     * Answers with {@link CoreResponse} holding a hit or a miss per variant in request order, in the expensive lane of
+     * {@link QueryExecutor}.
+     */
+    @POST
+    @Path("/variants")
+    @Consumes({"application/json"})
+    @Produces({MediaType.APPLICATION_JSON})
+    public void queryVariants(POSTParamsJaxBean params, @Context HttpHeaders headers, @Suspended AsyncResponse response) {
+        long start = System.nanoTime();
+        List<String> authzScheme = headers.getRequestHeader("Authorization");
+        String authz = (authzScheme != null && !authzScheme.isEmpty()) ? authzScheme.get(0) : null;
+        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(params.dataset, null, null, null, null, null, null, 0, null,
+                                                          params.annot, null, null, false, false, Format.JSON, authz);
+        coreQuery.setKeys(CoreQueryUtils.getVariantKeys(params.variants));
+        Metrics.time("normalise", coreQuery.getDataset(), coreQuery.getAnnot(), Metrics.OK, start);
+        request.setAttribute(MetricsInterceptor.QUERY, coreQuery);
+        executor.submit(coreQuery, response, () -> service.lookup(coreQuery));
+    }
+
+    /**
+     * VSAL REST end point: /search/density
+     * <p>
+     * Variant density for genome browser tracks, <b>dataset</b>, <b>chr</b> and <b>bin</b> (bin size, bp) are required.
+     * <b>start</b> and <b>end</b> default to the whole chromosome, <b>af</b> adds mean and max AF per bin.
+     * <p>
+     * Answers with {@link CoreResponse} holding the non empty bins in position order and their total. Bins are aligned
+     * to multiples of <b>bin</b>, a bin size which is a multiple of <i>countIndex.binSize</i> is answered from the
+     * count index without scanning, see {@link QueryExecutor} for lanes.
+     */
+    @GET
+    @Path("/density")
+    @Produces({MediaType.APPLICATION_JSON})
+    public void queryDensity(@QueryParam("dataset") String dataset,
+                             @QueryParam("chr") String chr,
+                             @QueryParam("start") Integer positionStart,
+                             @QueryParam("end") Integer positionEnd,
+                             @QueryParam("bin") Integer bin,
+                             @QueryParam("af") Boolean af,
+                             @Context HttpHeaders headers,
+                             @Suspended AsyncResponse response) {
+        long start = System.nanoTime();
+        List<String> authzScheme = headers.getRequestHeader("Authorization");
+        String authz = (authzScheme != null && !authzScheme.isEmpty()) ? authzScheme.get(0) : null;
+        CoreQuery coreQuery = CoreQueryUtils.getCoreQuery(dataset, chr, (positionStart == null) ? 0 : positionStart,
+                                                          (positionEnd == null) ? Integer.MAX_VALUE : positionEnd,
+                                                          null, null, null, 0, null, false, null, null, false, false,
+                                                          Format.JSON, authz);
+        coreQuery.setBin(bin);
+        coreQuery.setBinAf(af != null && af);
+        Metrics.time("normalise", coreQuery.getDataset(), coreQuery.getAnnot(), Metrics.OK, start);
+        request.setAttribute(MetricsInterceptor.QUERY, coreQuery);
+        executor.submit(coreQuery, response, () -> service.density(coreQuery));
+    }
+
+    /**
+     * Hands the query over to its {@link QueryExecutor} lane. Request headers and attributes are only accessible on this
+     * thread.
+     */
+    private void dispatch(CoreQuery coreQuery, HttpHeaders headers, AsyncResponse response) {
+        request.setAttribute(MetricsInterceptor.QUERY, coreQuery);
+        String encoding = Compression.negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null && coreQuery.getFormat().isStreaming() && coreQuery.getRanges() == null &&
+            coreQuery.getRsids() == null) {
+            long generation = cache.generation(coreQuery.getDataset());
+            request.setAttribute(CompressionInterceptor.BODY_SINK,
+                                 (BiConsumer<String, byte[]>) (enc, bytes) -> cache.putBody(coreQuery, enc, bytes, generation));
+        }
+        executor.submit(coreQuery, response, () -> respond(coreQuery, encoding));
+    }
+
+    private Response respond(CoreQuery coreQuery, String encoding) {
+        // JSON/XML envelopes echo the caller's query, JWT included, and the time it took, so they are serialised and
+        // compressed per request (their page comes from RegionCache); only streamed bodies are shared between callers
+        if (!coreQuery.getFormat().isStreaming())
+            return Response.ok(service.query(coreQuery)).build();
+
+        CoreResponse invalid = service.validate(coreQuery);
+        if (invalid != null)
+            return Response.ok(invalid, MediaType.APPLICATION_JSON_TYPE).build();
+
+        // a streamed body only depends on the query, so its compressed bytes can be served again as they are
+        Response.ResponseBuilder rb;
+        byte[] body = (encoding == null || coreQuery.getRanges() != null || coreQuery.getRsids() != null) ? null
+            : cache.getBody(coreQuery, encoding);
+        if (body != null)
+            rb = Response.ok(body, coreQuery.getFormat().getMediaType()).header(HttpHeaders.CONTENT_ENCODING, encoding);
+        else
+            rb = Response.ok(service.stream(coreQuery), coreQuery.getFormat().getMediaType());
+        if (coreQuery.getCount())
+            rb.header("X-Total-Count", service.count(coreQuery));
+        return rb.build();
+    }
+
+    /**
+     * Explicit format parameter wins, otherwise the first streaming media type the client accepts.
+     */
+    private static Format getFormat(String format, HttpHeaders headers) {
+        if (format != null)
+            return Format.fromString(format);
+        for (MediaType mt : headers.getAcceptableMediaTypes()) {
+            Format f = Format.fromMediaType(mt.getType() + "/" + mt.getSubtype());
+            if (f != null)
+                return f;
+            if (mt.isCompatible(MediaType.APPLICATION_JSON_TYPE) || mt.isCompatible(MediaType.APPLICATION_XML_TYPE))
+                break;
+        }
+        return null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.rest;
+
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.util.Metrics;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Times the <i>serialise</i> stage of responses to a query, i.e. writing the body including compression. A resource
+ * sets the request property {@link #QUERY} to its {@link CoreQuery} for the stage to be tagged with. Streamed formats
+ * read the store while they write, their time is in the <i>stream</i> stage as well.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@Provider
+@Priority(Priorities.HEADER_DECORATOR) // 3000: writer interceptors run in ascending priority, so this wraps CompressionInterceptor (ENTITY_CODER)
+public class MetricsInterceptor implements WriterInterceptor {
+
+    public static final String QUERY = "ssvs.query";
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        CoreQuery q = (CoreQuery) context.getProperty(QUERY);
+        if (q == null) {
+            context.proceed();
+            return;
+        }
+
+        long start = System.nanoTime();
+        String outcome = Metrics.ERROR;
+        try {
+            context.proceed();
+            outcome = Metrics.OK;
+        } finally {
+            Metrics.time("serialise", q.getDataset(), q.getAnnot(), outcome, start);
+        }
+    }
+}
@@ -41,6 +41,7 @@ import java.util.Set;
 public class VsalCore extends Application {
     @Override
     public Set<Class<?>> getClasses() {
-        return new HashSet<>(Arrays.asList(CoreResource.class,CorsResponseFilter.class));
+        return new HashSet<>(Arrays.asList(CoreResource.class,AdminResource.class,CorsResponseFilter.class,MetricsResource.class,
+                                                  CompressionInterceptor.class, MetricsInterceptor.class));
     }
 }
\ No newline at end of file
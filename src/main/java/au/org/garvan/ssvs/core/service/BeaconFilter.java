@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.dao.SummStatsDao;
+import au.org.garvan.ssvs.core.dao.SummStatsDaoRouter;
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-dataset Bloom filters over (chromosome, start, ref, alt) for beacon queries. A negative answer is final,
+ * so most beacon lookups never reach the database; a positive one still has to be confirmed against the store.
+ * <p>
+ * Every variant is added twice, with its reference allele and with a wildcard, to answer queries without a
+ * reference allele: about 2 * 9.6 bits per variant at the default <i>beacon.fpp</i>=0.01.
+ * Datasets listed in <i>beacon.preload</i> are built on deployment, others on their first beacon query;
+ * {@link #invalidate(DatasetID)} drops a filter when the dataset is reloaded.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class BeaconFilter {
+
+    private static final String ANY_REF = "*";
+
+    @Inject
+    private SummStatsDaoRouter daoRouter;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private double fpp;
+    private final Map<DatasetID, CompletableFuture<Map<Chromosome, BloomFilter<CharSequence>>>> filters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        fpp = Double.parseDouble(ReadConfig.getProp().getProperty("beacon.fpp", "0.01"));
+    }
+
+    public void preload(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        String preload = ReadConfig.getProp().getProperty("beacon.preload", "");
+        for (String name : preload.split(",")) {
+            DatasetID dataset = DatasetID.fromString(name.trim());
+            if (dataset != null)
+                get(dataset);
+        }
+    }
+
+    /**
+     * Whether a variant may exist, any reference allele matches if {@code ref} is null.
+     *
+     * @return false if it surely doesn't, null if the filter isn't ready yet
+     */
+    public Boolean mightContain(DatasetID dataset, Chromosome chr, int start, String ref, String alt) {
+        Map<Chromosome, BloomFilter<CharSequence>> filter = get(dataset);
+        if (filter == null)
+            return null;
+        BloomFilter<CharSequence> bloom = filter.get(chr);
+        return bloom != null && bloom.mightContain(key(start, ref == null ? ANY_REF : ref, alt));
+    }
+
+    public void invalidate(DatasetID dataset) {
+        filters.remove(dataset);
+    }
+
+    private Map<Chromosome, BloomFilter<CharSequence>> get(DatasetID dataset) {
+        CompletableFuture<Map<Chromosome, BloomFilter<CharSequence>>> filter =
+            filters.computeIfAbsent(dataset, d -> CompletableFuture.supplyAsync(() -> build(d), executor));
+        if (!filter.isDone())
+            return null;
+        if (filter.isCompletedExceptionally()) {
+            filters.remove(dataset, filter); // retry with the next query
+            return null;
+        }
+        return filter.join();
+    }
+
+    private Map<Chromosome, BloomFilter<CharSequence>> build(DatasetID dataset) {
+        SummStatsDao summStatsDao = daoRouter.get(dataset);
+        Map<Chromosome, BloomFilter<CharSequence>> filter = new EnumMap<>(Chromosome.class);
+        for (Chromosome chr : Chromosome.values()) {
+            long n = summStatsDao.count(dataset, chr, 0, Integer.MAX_VALUE, null);
+            BloomFilter<CharSequence> bloom = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                                                                 Math.max(1, 2 * n), fpp);
+            summStatsDao.alleles(dataset, chr, (start, ref, alt) -> {
+                bloom.put(key(start, ref, alt));
+                bloom.put(key(start, ANY_REF, alt));
+            });
+            filter.put(chr, bloom);
+        }
+        System.out.println("Beacon filter of " + dataset + " is ready");
+        return filter;
+    }
+
+    private static String key(int start, String ref, String alt) {
+        return start + ":" + ref + ":" + alt;
+    }
+}
@@ -28,15 +28,38 @@ package au.org.garvan.ssvs.core.service;
 import au.org.garvan.ssvs.core.entity.*;
 import au.org.garvan.ssvs.core.entity.Error;
 import au.org.garvan.ssvs.core.util.CoreJWT;
-import au.org.garvan.ssvs.core.dao.SummStatsDao;
+import au.org.garvan.ssvs.core.util.Deadline;
+import au.org.garvan.ssvs.core.util.Metrics;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+import au.org.garvan.ssvs.core.util.VariantWriter;
+import au.org.garvan.ssvs.core.dao.SummStatsDaoRouter;
 
 import javax.annotation.PostConstruct;
-import javax.enterprise.context.RequestScoped;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
 
 import com.auth0.jwt.exceptions.JWTVerificationException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
-import javax.ejb.EJB;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
 
 /**
  * VSAL core service.
@@ -44,28 +67,80 @@ import javax.ejb.EJB;
  * @author Dmitry Degrave (dmeetry@gmail.com)
  * @version 1.0
  */
-@RequestScoped
+@ApplicationScoped
 public class CoreService {
 
     public static final int NANO_TO_MILLI = 1000000;
+    private static final int MAX_REGIONS = 1000; // default, can be overridden per dataset with maxRegions[.DATASET]
+    private static final int MAX_LOOKUPS = 10000; // default, can be overridden per dataset with maxLookups[.DATASET]
+    private static final int MAX_BINS = 10000; // default, can be overridden per dataset with density.maxBins[.DATASET]
+    private static final int MAX_CHROMOSOME = 250000000; // bp, a bit over chr1, no human chromosome has variants beyond
 
-    @EJB
-    private SummStatsDao summStatsDao;
+    @Inject
+    private SummStatsDaoRouter daoRouter;
+
+    @Inject
+    private RegionCache cache;
+
+    @Inject
+    private CountIndex countIndex;
+
+    @Inject
+    private BeaconFilter beaconFilter;
+
+    @Resource
+    private ManagedExecutorService workers; // counts and partitions of a query, not a query lane: a lane can't wait for itself
+
+    // identical queries running at the same time share one DAO call, the JWT is still checked per caller
+    private final SingleFlight<QueryKey, List<Variant>> pageLoads = new SingleFlight<>();
+    private final SingleFlight<QueryKey, Long> countLoads = new SingleFlight<>();
 
     @PostConstruct
     public void init() {
     }
 
-    public CoreResponse query(CoreQuery q) {
-
-        final long start = System.nanoTime();
+    /**
+     * Checks the query and the caller's JWT.
+     *
+     * @return response with an error or null if the query can be run
+     */
+    public CoreResponse validate(CoreQuery q) {
+        return validate(q, System.nanoTime());
+    }
 
+    private CoreResponse validate(CoreQuery q, long start) {
         if (q.getDataset() == null) {
             Error errorResource = new Error("Incomplete Query", "A valid dataset is required");
             Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
             return new CoreResponse(q, elapsed, errorResource);
         }
 
+        if (q.getGene() != null && q.getChromosome() == null && q.getRanges() == null) {
+            Error errorResource = new Error("Malformed Query", "Unknown gene " + q.getGene());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, errorResource);
+        }
+
+        if (q.getRsids() != null) {
+            Error invalid = validateRsids(q);
+            if (invalid == null)
+                invalid = authorize(q);
+            if (invalid == null)
+                return null;
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, invalid);
+        }
+
+        if (q.getRanges() != null) {
+            Error invalid = validateRanges(q);
+            if (invalid == null)
+                invalid = authorize(q);
+            if (invalid == null)
+                return null;
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, invalid);
+        }
+
         if (q.getChromosome() == null) {
             Error errorResource = new Error("Incomplete Query", "Chromosome is required");
             Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
@@ -90,12 +165,56 @@ public class CoreService {
             return new CoreResponse(q, elapsed, errorResource);
         }
 
+        if (q.getCursor() != null && q.getCursor().getChromosome() != q.getChromosome()) {
+            Error errorResource = new Error("Malformed Query", "Cursor does not belong to this chromosome");
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, errorResource);
+        }
+
+        if (q.getCursor() != null && q.getSortBy() != null) {
+            Error errorResource = new Error("Malformed Query", "Cursor can't be combined with sortBy");
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, errorResource);
+        }
+
+        if (q.getFilter() != null && q.getFilter().malformed() != null) {
+            Error errorResource = new Error("Malformed Query", q.getFilter().malformed());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, errorResource);
+        }
+
+        if (q.getFields() != null && q.getFields().contains(null)) {
+            Error errorResource = new Error("Malformed Query", "Unknown column in fields, valid columns are " + Arrays.toString(Field.values()));
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, errorResource);
+        }
+
+        Error denied = authorize(q);
+        if (denied != null) {
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, denied);
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks the caller's JWT against the dataset.
+     *
+     * @return error or null if the caller has access
+     */
+    private Error authorize(CoreQuery q) {
+        long start = System.nanoTime();
+        Error denied = verify(q);
+        Metrics.time("jwt", q.getDataset(), q.getAnnot(), (denied == null) ? Metrics.OK : Metrics.DENIED, start);
+        return denied;
+    }
+
+    private static Error verify(CoreQuery q) {
         try {
             if (!q.getBeacon() && q.getJwt() == null) {
                 System.out.println("Unauthorized: JWT is required");
-                Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-                Error errorResource = new Error("Unauthorized", "JWT is required");
-                return new CoreResponse(q, elapsed, errorResource);
+                return new Error("Unauthorized", "JWT is required");
             } else if (!q.getDataset().toString().equalsIgnoreCase("demo") &&
                 !q.getDataset().toString().equalsIgnoreCase("mgrb") &&
                 !q.getDataset().toString().equalsIgnoreCase("circa")) {
@@ -103,48 +222,861 @@ public class CoreService {
             }
         } catch (JWTVerificationException e) {
             e.printStackTrace();
-            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-            Error errorResource = new Error("JWT verification failed", e.getMessage());
-            return new CoreResponse(q, elapsed, errorResource);
+            return new Error("JWT verification failed", e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
-            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
-            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-            return new CoreResponse(q, elapsed, errorResource);
+            return new Error("VS Runtime Exception", e.getMessage());
+        }
+
+        return null;
+    }
+
+    public CoreResponse query(CoreQuery q) {
+
+        final long start = System.nanoTime();
+
+        CoreResponse invalid = validate(q, start);
+        if (invalid != null)
+            return invalid;
+
+        if (q.getRsids() != null)
+            return dbSnp(q, start);
+
+        if (q.getRanges() != null)
+            return scatter(q, start);
+
+        if (q.getBeacon() && q.getAlt() != null && q.getPositionStart().equals(q.getPositionEnd()))
+            return beacon(q, start);
+
+        // the count runs next to the page on its own connection
+        Future<Long> counting = q.getCount() ? countAsync(q) : null;
+
+        List<Field> columns = null;
+        List<Object[]> rows = null;
+        List<Variant> variants = null;
+        Exception failure = null;
+        try {
+            if (q.getFields() != null) {
+                columns = columns(q);
+                rows = project(q, columns);
+            } else {
+                variants = fetch(q);
+            }
+        } catch (Exception e) {
+            failure = e;
         }
 
-        long total = -1;
-        if (q.getCount())
-            total = summStatsDao.count(q.getChromosome(), q.getPositionStart(), q.getPositionEnd());
+        long total = (counting == null) ? -1 : await(counting); // failed count is thrown as before
 
         CoreResponse res;
 
-        if (q.getAnnot()) {
-            try {
-                List<Variant> variants = summStatsDao.query(q.getChromosome(), q.getPositionStart(), q.getPositionEnd(),
-                                                            q.getLimit(), q.getSkip(), q.getSortBy(), q.getDescend());
+        try {
+            if (failure != null)
+                throw failure;
+            if (rows != null) {
+                Metrics.rows(q.getDataset(), q.getAnnot(), rows.size());
                 Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-                res = new CoreResponse(q, elapsed, variants, total, null);
-            } catch (Exception e) {
-                e.printStackTrace();
-                Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+                res = new CoreResponse(q, elapsed, null, total, null);
+                res.setRows(toRows(q.getFields(), rows));
+                res.setCursor(nextCursor(q, columns, rows));
+            } else {
+                Metrics.rows(q.getDataset(), q.getAnnot(), variants.size());
                 Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-                res = new CoreResponse(q, elapsed, errorResource);
+                res = new CoreResponse(q, elapsed, variants, total, null);
+                res.setCursor(nextCursor(q, variants));
             }
-        } else {
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    /**
+     * {@link #count(CoreQuery)} off this thread, see {@link #async(Supplier)}. Cached counts are answered at once.
+     */
+    private Future<Long> countAsync(CoreQuery q) {
+        Long cached = (q.getRanges() == null && q.getRsids() == null) ? cache.getCount(QueryKey.count(q)) : null;
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return async(() -> count(q));
+    }
+
+    /**
+     * Runs {@code task} on the default managed executor with the caller's {@link Deadline}, or on this thread when
+     * the executor is saturated.
+     */
+    private <T> Future<T> async(Supplier<T> task) {
+        Long deadline = Deadline.get();
+        try {
+            return workers.submit(() -> {
+                if (deadline != null)
+                    Deadline.set(deadline);
+                try {
+                    return task.get();
+                } finally {
+                    Deadline.clear();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> inline = new CompletableFuture<>();
             try {
-                List<Variant> variants = summStatsDao.q(q.getChromosome(), q.getPositionStart(), q.getPositionEnd(),
-                                                        q.getLimit(), q.getSkip());
-                Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+                inline.complete(task.get());
+            } catch (RuntimeException ex) {
+                inline.completeExceptionally(ex);
+            }
+            return inline;
+        }
+    }
+
+    /**
+     * Result of {@link #async(Supplier)}, thrown as the task threw it.
+     */
+    private static <T> T await(Future<T> task) {
+        try {
+            Integer timeout = Deadline.remainingMs();
+            return (timeout == null) ? task.get() : task.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            throw new CancellationException("Query deadline exceeded");
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        }
+    }
+
+    /**
+     * Query over {@link CoreQuery#getRanges()}, see {@link #partitions(CoreQuery)}. Partitions are read as ordinary
+     * queries in parallel, at most <i>scatter.parallelism</i> at a time, and concatenated in order up to
+     * {@link CoreQuery#getLimit()}. Once the partitions read so far fill the limit, those still running are cancelled
+     * and the rest never start. There is no cursor over several partitions.
+     */
+    private CoreResponse scatter(CoreQuery q, long start) {
+        CoreResponse res;
+
+        try {
+            List<CoreQuery> parts = partitions(q);
+            Future<Long> counting = q.getCount() ? countAsync(q) : null;
+            int parallelism = Math.max(1, ReadConfig.getInt("scatter.parallelism", q.getDataset(), 4));
+
+            List<Object> merged = new ArrayList<>();
+            Deque<Future<List<?>>> running = new ArrayDeque<>();
+            int next = 0;
+            try {
+                while (merged.size() < q.getLimit() && (next < parts.size() || !running.isEmpty())) {
+                    while (running.size() < parallelism && next < parts.size()) {
+                        CoreQuery part = parts.get(next++);
+                        part.setLimit(q.getLimit() - merged.size()); // earlier partitions only add rows
+                        running.add(async(() -> (q.getFields() != null) ? project(part, q.getFields()) : fetch(part)));
+                    }
+                    for (Object row : await(running.poll())) {
+                        if (merged.size() >= q.getLimit())
+                            break;
+                        merged.add(row);
+                    }
+                }
+            } finally {
+                for (Future<?> f : running)
+                    f.cancel(true);
+            }
+
+            long total = (counting == null) ? -1 : await(counting);
+            Metrics.rows(q.getDataset(), q.getAnnot(), merged.size());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            if (q.getFields() != null) {
+                List<Object[]> rows = new ArrayList<>(merged.size());
+                for (Object row : merged)
+                    rows.add((Object[]) row);
+                res = new CoreResponse(q, elapsed, null, total, null);
+                res.setRows(toRows(q.getFields(), rows));
+            } else {
+                List<Variant> variants = new ArrayList<>(merged.size());
+                for (Object row : merged)
+                    variants.add((Variant) row);
                 res = new CoreResponse(q, elapsed, variants, total, null);
-            } catch (Exception e) {
-                e.printStackTrace();
-                Error errorResource = new Error("VS Runtime Exception", e.getMessage());
-                Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
-                res = new CoreResponse(q, elapsed, errorResource);
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    /**
+     * Query over {@link CoreQuery#getRsids()}, answered from the store's rsID index, see {@link #rsidMatches(CoreQuery)}.
+     * A list of ids is a single page, there is no cursor.
+     */
+    private CoreResponse dbSnp(CoreQuery q, long start) {
+        CoreResponse res;
+
+        try {
+            List<Variant> matches = rsidMatches(q);
+            long total = q.getCount() ? matches.size() : -1;
+            List<Variant> variants = matches.subList(0, Math.min(matches.size(), q.getLimit()));
+            Metrics.rows(q.getDataset(), q.getAnnot(), variants.size());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            if (q.getFields() != null) {
+                res = new CoreResponse(q, elapsed, null, total, null);
+                res.setRows(toRows(q.getFields(), values(variants, q.getFields())));
+            } else {
+                List<Variant> page = new ArrayList<>(variants.size());
+                for (Variant v : variants)
+                    page.add(q.getAnnot() ? v : shortForm(v));
+                res = new CoreResponse(q, elapsed, page, total, null);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
         }
 
         return res;
     }
+
+    /**
+     * Whole rows with one of the ids of {@link CoreQuery#getRsids()} which match the filter, in karyotype order.
+     */
+    private List<Variant> rsidMatches(CoreQuery q) {
+        long start = System.nanoTime();
+        String outcome = Metrics.ERROR;
+        try {
+            List<Variant> variants = new ArrayList<>();
+            for (Variant v : daoRouter.get(q.getDataset()).rsids(q.getDataset(), q.getRsids()))
+                if (q.getFilter() == null || q.getFilter().matches(v::valueOf))
+                    variants.add(v);
+            variants.sort(Comparator.comparingInt((Variant v) -> {
+                Chromosome chr = Chromosome.fromString(v.getChr());
+                return (chr == null) ? Integer.MAX_VALUE : chr.rank();
+            }).thenComparingInt(Variant::getStart).thenComparing(Variant::getV));
+            outcome = Metrics.OK;
+            return variants;
+        } finally {
+            Metrics.time("fetch", q.getDataset(), q.getAnnot(), outcome, start);
+        }
+    }
+
+    private static List<Object[]> values(List<Variant> variants, List<Field> fields) {
+        List<Object[]> rows = new ArrayList<>(variants.size());
+        for (Variant v : variants) {
+            Object[] row = new Object[fields.size()];
+            for (int i = 0; i < row.length; i++)
+                row[i] = v.valueOf(fields.get(i));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Variant shortForm(Variant v) {
+        return new Variant(v.getV(), v.getChr(), v.getStart(), v.getRsid(), v.getAf(), v.getnHet(), v.getnHomVar());
+    }
+
+    /**
+     * dbSNP ids must be well formed and few enough, and can't be combined with paging.
+     */
+    private static Error validateRsids(CoreQuery q) {
+        if (q.getRsids().contains(null))
+            return new Error("Malformed Query", "rsid should be a comma separated list of dbSNP ids, e.g. rs6054257");
+        int maxLookups = ReadConfig.getInt("maxLookups", q.getDataset(), MAX_LOOKUPS);
+        if (q.getRsids().size() > maxLookups)
+            return new Error("Malformed Query", "At most " + maxLookups + " rsids are allowed");
+        if (q.getCursor() != null || q.getSortBy() != null || (q.getSkip() != null && q.getSkip() > 0))
+            return new Error("Malformed Query", "cursor, sortBy and skip can't be combined with rsid");
+        if (q.getFilter() != null && q.getFilter().malformed() != null)
+            return new Error("Malformed Query", q.getFilter().malformed());
+        if (q.getFields() != null && q.getFields().contains(null))
+            return new Error("Malformed Query", "Unknown column in fields, valid columns are " + Arrays.toString(Field.values()));
+        return null;
+    }
+
+    /**
+     * Single chromosome queries covering {@link CoreQuery#getRanges()} in karyotype order, overlapping and adjacent
+     * ranges merged so no variant is read twice.
+     */
+    private static List<CoreQuery> partitions(CoreQuery q) {
+        List<Region> ranges = new ArrayList<>(q.getRanges());
+        ranges.sort(Comparator.comparingInt((Region r) -> r.getChromosome().rank()).thenComparing(Region::getPositionStart));
+
+        List<CoreQuery> parts = new ArrayList<>();
+        Region first = null;
+        int end = 0;
+        for (Region r : ranges) {
+            if (first != null && r.getChromosome() == first.getChromosome() && r.getPositionStart() <= (long) end + 1) {
+                end = Math.max(end, r.getPositionEnd());
+                continue;
+            }
+            if (first != null)
+                parts.add(partition(q, first.getChromosome(), first.getPositionStart(), end));
+            first = r;
+            end = r.getPositionEnd();
+        }
+        if (first != null)
+            parts.add(partition(q, first.getChromosome(), first.getPositionStart(), end));
+        return parts;
+    }
+
+    private static CoreQuery partition(CoreQuery q, Chromosome chr, int start, int end) {
+        CoreQuery part = new CoreQuery(q.getDataset(), chr, start, end, q.getLimit(), 0, null, q.getAnnot(), null, false,
+                                       false, null, null, q.getBeacon(), q.getFormat(), q.getJwt());
+        part.setFilter(q.getFilter());
+        part.setFields(q.getFields());
+        return part;
+    }
+
+    /**
+     * Ranges must be valid regions, and can't be combined with what only makes sense on one chromosome.
+     */
+    private static Error validateRanges(CoreQuery q) {
+        Error invalid = validateRegions(q, q.getRanges());
+        if (invalid != null)
+            return invalid;
+        if (q.getCursor() != null || q.getSortBy() != null || (q.getSkip() != null && q.getSkip() > 0))
+            return new Error("Malformed Query", "cursor, sortBy and skip can't be combined with multiple chromosomes");
+        if (q.getFilter() != null && q.getFilter().malformed() != null)
+            return new Error("Malformed Query", q.getFilter().malformed());
+        if (q.getFields() != null && q.getFields().contains(null))
+            return new Error("Malformed Query", "Unknown column in fields, valid columns are " + Arrays.toString(Field.values()));
+        return null;
+    }
+
+    /**
+     * Existence of an allele at a single position. Negatives come from {@link BeaconFilter} alone, positives and
+     * lookups before the filter is built are answered by the store.
+     */
+    private CoreResponse beacon(CoreQuery q, long start) {
+        CoreResponse res;
+
+        try {
+            String ref = q.getRef();
+            String alt = q.getAlt();
+            Boolean maybe = beaconFilter.mightContain(q.getDataset(), q.getChromosome(), q.getPositionStart(), ref, alt);
+            boolean exists = !Boolean.FALSE.equals(maybe) &&
+                daoRouter.get(q.getDataset()).exists(q.getDataset(), q.getChromosome(), q.getPositionStart(), ref, alt);
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, null);
+            res.setExists(exists);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    /**
+     * Batch query over {@link CoreQuery#getRegions()} of one dataset. The JWT is verified once, overlapping or adjacent
+     * regions are merged into a single range scan and every region gets its own slice of up to
+     * {@link CoreQuery#getLimit()} variants.
+     */
+    public CoreResponse queryRegions(CoreQuery q) {
+
+        final long start = System.nanoTime();
+
+        Error invalid = validateRegions(q, q.getRegions());
+        if (invalid == null)
+            invalid = authorize(q);
+        if (invalid != null) {
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, invalid);
+        }
+
+        CoreResponse res;
+
+        try {
+            List<Region> regions = q.getRegions();
+            Integer[] order = new Integer[regions.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparing((Integer i) -> regions.get(i).getChromosome())
+                                         .thenComparing(i -> regions.get(i).getPositionStart()));
+
+            RegionResult[] results = new RegionResult[regions.size()];
+            long rows = 0;
+            int from = 0;
+            while (from < order.length) {
+                Region first = regions.get(order[from]);
+                int mergedEnd = first.getPositionEnd();
+                int to = from + 1;
+                for (; to < order.length; to++) {
+                    Region next = regions.get(order[to]);
+                    if (next.getChromosome() != first.getChromosome() || next.getPositionStart() - 1 > mergedEnd) // no overflow for an open end
+                        break;
+                    mergedEnd = Math.max(mergedEnd, next.getPositionEnd());
+                }
+
+                int lim = (int) Math.min((long) q.getLimit() * (to - from), Integer.MAX_VALUE);
+                CoreQuery range = new CoreQuery(q.getDataset(), first.getChromosome(), first.getPositionStart(), mergedEnd, lim, 0,
+                                                null, q.getAnnot(), null, false, false, null, null, q.getBeacon(),
+                                                Format.JSON, q.getJwt());
+                range.setFilter(q.getFilter());
+                List<Variant> variants = fetch(range);
+                boolean full = variants.size() >= lim;
+                for (int k = from; k < to; k++) {
+                    results[order[k]] = slice(regions.get(order[k]), variants, full, q.getLimit());
+                    rows += results[order[k]].getVariants().size();
+                }
+                from = to;
+            }
+            Metrics.rows(q.getDataset(), q.getAnnot(), rows);
+
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, null);
+            res.setRegions(Arrays.asList(results));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    /**
+     * Batch lookup of {@link CoreQuery#getKeys()} in one dataset. The JWT is verified once, keys are sorted by
+     * chromosome and position, and every chromosome is a single DAO lookup of its distinct positions, joined with the
+     * keys on (position, ref, alt). Results come in request order, misses included.
+     */
+    public CoreResponse lookup(CoreQuery q) {
+
+        final long start = System.nanoTime();
+
+        Error invalid = validateKeys(q);
+        if (invalid == null)
+            invalid = authorize(q);
+        if (invalid != null) {
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, invalid);
+        }
+
+        CoreResponse res;
+
+        try {
+            List<VariantKey> keys = q.getKeys();
+            Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparing((Integer i) -> keys.get(i).getChromosome())
+                                         .thenComparing(i -> keys.get(i).getPosition()));
+
+            LookupResult[] results = new LookupResult[keys.size()];
+            long hits = 0;
+            int from = 0;
+            while (from < order.length) {
+                Chromosome chr = keys.get(order[from]).getChromosome();
+                int to = from + 1;
+                while (to < order.length && keys.get(order[to]).getChromosome() == chr)
+                    to++;
+
+                int[] starts = IntStream.range(from, to).map(k -> keys.get(order[k]).getPosition()).distinct().toArray();
+                List<Variant> variants = daoRouter.get(q.getDataset()).lookup(q.getDataset(), chr, starts);
+
+                int row = 0;
+                for (int k = from; k < to; k++) {
+                    VariantKey key = keys.get(order[k]);
+                    while (row < variants.size() && variants.get(row).getStart() < key.getPosition())
+                        row++;
+                    Variant hit = null;
+                    for (int r = row; r < variants.size() && variants.get(r).getStart() == key.getPosition(); r++) {
+                        Variant v = variants.get(r);
+                        if (key.getRef().equals(v.getRef()) && key.getAlt().equals(v.getAlt())) {
+                            hit = q.getAnnot() ? v : shortForm(v);
+                            hits++;
+                            break;
+                        }
+                    }
+                    results[order[k]] = new LookupResult(key, hit);
+                }
+                from = to;
+            }
+            Metrics.rows(q.getDataset(), q.getAnnot(), hits);
+
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, null);
+            res.setLookups(Arrays.asList(results));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    /**
+     * Variant density of a region: counts per position bin, plus mean and max AF if asked for. Counts come from the
+     * {@link CountIndex} when the bin size is a multiple of its bin and AF isn't asked for, from a GROUP BY in the
+     * store otherwise.
+     */
+    public CoreResponse density(CoreQuery q) {
+
+        final long start = System.nanoTime();
+
+        Error invalid = validateDensity(q);
+        if (invalid == null)
+            invalid = authorize(q);
+        if (invalid != null) {
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            return new CoreResponse(q, elapsed, invalid);
+        }
+
+        CoreResponse res;
+
+        try {
+            long fetch = System.nanoTime();
+            boolean af = Boolean.TRUE.equals(q.getBinAf());
+            List<DensityBin> bins = af ? null : countIndex.density(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                                                   q.getPositionEnd(), q.getBin());
+            if (bins == null)
+                bins = daoRouter.get(q.getDataset()).density(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                                             q.getPositionEnd(), q.getBin(), af);
+            Metrics.time("fetch", q.getDataset(), q.getAnnot(), Metrics.OK, fetch);
+
+            long total = 0;
+            for (DensityBin b : bins)
+                total += b.getCount();
+
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, null, total, null);
+            res.setBins(bins);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Error errorResource = new Error("VS Runtime Exception", e.getMessage());
+            Long elapsed = (System.nanoTime() - start) / NANO_TO_MILLI;
+            res = new CoreResponse(q, elapsed, errorResource);
+        }
+
+        return res;
+    }
+
+    private static Error validateDensity(CoreQuery q) {
+        if (q.getDataset() == null)
+            return new Error("Incomplete Query", "A valid dataset is required");
+
+        if (q.getChromosome() == null)
+            return new Error("Incomplete Query", "Chromosome is required");
+
+        if (q.getBin() == null)
+            return new Error("Incomplete Query", "Bin size is required");
+
+        if (q.getBin() <= 0)
+            return new Error("Malformed Query", "Bin size must be positive");
+
+        if (q.getPositionStart() < 0 || q.getPositionEnd() < 0)
+            return new Error("Malformed Query", "Start/End positions must be non negative");
+
+        if (q.getPositionEnd() < q.getPositionStart())
+            return new Error("Malformed Query", "End position of a region should be >= start position");
+
+        int maxBins = ReadConfig.getInt("density.maxBins", q.getDataset(), MAX_BINS);
+        long bins = Math.min(q.getPositionEnd(), MAX_CHROMOSOME) / q.getBin() - q.getPositionStart() / q.getBin() + 1;
+        if (bins > maxBins)
+            return new Error("Malformed Query", "At most " + maxBins + " bins are allowed, use a larger bin");
+
+        return null;
+    }
+
+    private static Error validateKeys(CoreQuery q) {
+        if (q.getDataset() == null)
+            return new Error("Incomplete Query", "A valid dataset is required");
+
+        List<VariantKey> keys = q.getKeys();
+        if (keys == null || keys.isEmpty())
+            return new Error("Incomplete Query", "At least one variant is required");
+
+        int maxLookups = ReadConfig.getInt("maxLookups", q.getDataset(), MAX_LOOKUPS);
+        if (keys.size() > maxLookups)
+            return new Error("Malformed Query", "At most " + maxLookups + " variants are allowed");
+
+        for (int i = 0; i < keys.size(); i++) {
+            VariantKey k = keys.get(i);
+            if (k.getChromosome() == null || k.getPosition() == null || k.getRef() == null || k.getAlt() == null)
+                return new Error("Malformed Query", "Chromosome, position, ref and alt (or v as chr-pos-ref-alt) are " +
+                                                    "required, variant " + i);
+        }
+
+        return null;
+    }
+
+    private static Error validateRegions(CoreQuery q, List<Region> regions) {
+        if (q.getDataset() == null)
+            return new Error("Incomplete Query", "A valid dataset is required");
+
+        if (regions == null || regions.isEmpty())
+            return new Error("Incomplete Query", "At least one region is required");
+
+        int maxRegions = ReadConfig.getInt("maxRegions", q.getDataset(), MAX_REGIONS);
+        if (regions.size() > maxRegions)
+            return new Error("Malformed Query", "At most " + maxRegions + " regions are allowed");
+
+        for (int i = 0; i < regions.size(); i++) {
+            Region r = regions.get(i);
+            if (r.getChromosome() == null)
+                return new Error("Incomplete Query", "Chromosome is required, region " + i);
+            if (r.getPositionStart() == null || r.getPositionEnd() == null)
+                return new Error("Incomplete Query", "Start/End positions are required, region " + i);
+            if (r.getPositionStart() < 0 || r.getPositionEnd() < 0)
+                return new Error("Malformed Query", "Start/End positions must be non negative, region " + i);
+            if (r.getPositionEnd() < r.getPositionStart())
+                return new Error("Malformed Query", "End position of a region should be >= start position, region " + i);
+        }
+
+        return null;
+    }
+
+    /**
+     * Variants of {@code region} from a merged range sorted by start. The slice is truncated when it hit the limit with
+     * more rows left, or when the merged scan was cut before the end of the region.
+     */
+    private static RegionResult slice(Region region, List<Variant> variants, boolean full, int limit) {
+        int lo = 0, hi = variants.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (variants.get(mid).getStart() < region.getPositionStart())
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        List<Variant> slice = new ArrayList<>();
+        int i = lo;
+        for (; i < variants.size() && variants.get(i).getStart() <= region.getPositionEnd() && slice.size() < limit; i++)
+            slice.add(variants.get(i));
+
+        boolean more = i < variants.size() && variants.get(i).getStart() <= region.getPositionEnd();
+        boolean cut = full && !variants.isEmpty() && variants.get(variants.size() - 1).getStart() <= region.getPositionEnd();
+        return new RegionResult(region, slice, more || cut);
+    }
+
+    private List<Variant> fetch(CoreQuery q) {
+        long start = System.nanoTime();
+        String outcome = Metrics.ERROR;
+        try {
+            List<Variant> variants = load(q);
+            outcome = Metrics.OK;
+            return variants;
+        } finally {
+            Metrics.time("fetch", q.getDataset(), q.getAnnot(), outcome, start);
+        }
+    }
+
+    private List<Variant> load(CoreQuery q) {
+        QueryKey key = QueryKey.of(q);
+        List<Variant> variants = cache.get(key);
+        if (variants != null)
+            return variants;
+
+        return pageLoads.load(key, () -> {
+            long generation = cache.generation(q.getDataset());
+            List<Variant> page;
+            if (q.getAnnot())
+                page = daoRouter.get(q.getDataset()).query(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                          q.getPositionEnd(), q.getLimit(), q.getSkip(), q.getCursor(), q.getFilter(),
+                                          q.getSortBy(), q.getDescend());
+            else
+                page = daoRouter.get(q.getDataset()).q(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                      q.getPositionEnd(), q.getLimit(), q.getSkip(), q.getCursor(), q.getFilter());
+            cache.put(key, page, generation);
+            return page;
+        });
+    }
+
+    private List<Object[]> project(CoreQuery q, List<Field> columns) {
+        long start = System.nanoTime();
+        String outcome = Metrics.ERROR;
+        try {
+            List<Object[]> rows = new ArrayList<>();
+            daoRouter.get(q.getDataset()).project(q.getDataset(), q.getChromosome(), q.getPositionStart(), q.getPositionEnd(),
+                                                  q.getLimit(), q.getSkip(), q.getCursor(), q.getFilter(), q.getSortBy(),
+                                                  q.getDescend(), columns, rows::add);
+            outcome = Metrics.OK;
+            return rows;
+        } finally {
+            Metrics.time("fetch", q.getDataset(), q.getAnnot(), outcome, start);
+        }
+    }
+
+    /**
+     * Token of the page following {@code variants}. Only rows in the default (start, variant) order can be resumed,
+     * a short page is the last one.
+     */
+    private static String nextCursor(CoreQuery q, List<Variant> variants) {
+        if (q.getSortBy() != null || variants.isEmpty() || variants.size() < q.getLimit())
+            return null;
+        Variant last = variants.get(variants.size() - 1);
+        return new Cursor(q.getChromosome(), last.getStart(), last.getV()).encode();
+    }
+
+    /**
+     * Columns read for a projection: the asked ones followed by variant and start when a page can be resumed, so the
+     * cursor can be built without whole rows. Projections bypass {@link RegionCache}.
+     */
+    private static List<Field> columns(CoreQuery q) {
+        List<Field> columns = new ArrayList<>(q.getFields());
+        if (q.getSortBy() == null) {
+            if (!columns.contains(Field.FIELD01))
+                columns.add(Field.FIELD01);
+            if (!columns.contains(Field.FIELD03))
+                columns.add(Field.FIELD03);
+        }
+        return columns;
+    }
+
+    private static List<Row> toRows(List<Field> fields, List<Object[]> rows) {
+        List<Row> projected = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Row r = new Row();
+            for (int i = 0; i < fields.size(); i++)
+                r.put(fields.get(i).toString(), row[i]);
+            projected.add(r);
+        }
+        return projected;
+    }
+
+    private static String nextCursor(CoreQuery q, List<Field> columns, List<Object[]> rows) {
+        if (q.getSortBy() != null || rows.isEmpty() || rows.size() < q.getLimit())
+            return null;
+        Object[] last = rows.get(rows.size() - 1);
+        return new Cursor(q.getChromosome(), ((Number) last[columns.indexOf(Field.FIELD03)]).intValue(),
+                          (String) last[columns.indexOf(Field.FIELD01)]).encode();
+    }
+
+    public long count(CoreQuery q) {
+        long start = System.nanoTime();
+        String outcome = Metrics.ERROR;
+        try {
+            long total = total(q);
+            outcome = Metrics.OK;
+            return total;
+        } finally {
+            Metrics.time("count", q.getDataset(), q.getAnnot(), outcome, start);
+        }
+    }
+
+    private long total(CoreQuery q) {
+        if (q.getRsids() != null)
+            return rsidMatches(q).size();
+
+        if (q.getRanges() != null) {
+            long n = 0;
+            for (CoreQuery part : partitions(q))
+                n += total(part);
+            return n;
+        }
+
+        QueryKey key = QueryKey.count(q);
+        Long total = cache.getCount(key);
+        if (total == null && q.getFilter() != null) {
+            total = countLoads.load(key, () -> {
+                long generation = cache.generation(q.getDataset());
+                Long exact = daoRouter.get(q.getDataset()).count(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                                                 q.getPositionEnd(), q.getFilter());
+                cache.putCount(key, exact, generation);
+                return exact;
+            });
+        } else if (total == null) {
+            long generation = cache.generation(q.getDataset());
+            total = countIndex.count(q.getDataset(), q.getChromosome(), q.getPositionStart(), q.getPositionEnd());
+            cache.putCount(key, total, generation);
+        }
+        return total;
+    }
+
+    /**
+     * How many queries shared the DAO call of an identical one running at the same time.
+     */
+    public List<CacheInfo> getCoalescingInfo() {
+        return Arrays.asList(pageLoads.info("coalesced pages"), countLoads.info("coalesced counts"));
+    }
+
+    /**
+     * Streams rows of an already validated query in {@link CoreQuery#getFormat()}, see {@link #validate(CoreQuery)}.
+     * Rows are written as the DAO reads them, the result is never materialized. Partitions of a multi-chromosome query
+     * are written one after another, each read up to what is left of the limit.
+     */
+    public StreamingOutput stream(CoreQuery q) {
+        return os -> {
+            long start = System.nanoTime();
+            String outcome = Metrics.ERROR;
+            long[] rows = {0};
+            VariantWriter writer = (q.getFields() == null) ? VariantWriter.create(q.getFormat(), q.getAnnot(), os)
+                                                           : VariantWriter.create(q.getFormat(), q.getFields(), os);
+            writer.begin();
+            try {
+                if (q.getRsids() != null) {
+                    List<Variant> variants = rsidMatches(q);
+                    List<Variant> page = variants.subList(0, Math.min(variants.size(), q.getLimit()));
+                    if (q.getFields() != null) {
+                        for (Object[] row : values(page, q.getFields()))
+                            writer.write(row);
+                    } else {
+                        for (Variant v : page)
+                            writer.write(v);
+                    }
+                    rows[0] = page.size();
+                } else if (q.getRanges() == null) {
+                    write(q, writer, rows);
+                } else {
+                    for (CoreQuery part : partitions(q)) {
+                        if (rows[0] >= q.getLimit())
+                            break;
+                        part.setLimit((int) (q.getLimit() - rows[0]));
+                        write(part, writer, rows);
+                    }
+                }
+                writer.end();
+                outcome = Metrics.OK;
+                Metrics.rows(q.getDataset(), q.getAnnot(), rows[0]);
+            } catch (UncheckedIOException e) {
+                outcome = Metrics.ABORTED;
+                throw e.getCause(); // client has gone, nothing to report
+            } finally {
+                writer.close();
+                Metrics.time("stream", q.getDataset(), q.getAnnot(), outcome, start);
+            }
+        };
+    }
+
+    /**
+     * Writes the rows of a single chromosome query, {@code rows[0]} counts them.
+     */
+    private void write(CoreQuery q, VariantWriter writer, long[] rows) {
+        if (q.getFields() != null) {
+            daoRouter.get(q.getDataset()).project(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                                  q.getPositionEnd(), q.getLimit(), q.getSkip(), q.getCursor(),
+                                                  q.getFilter(), q.getSortBy(), q.getDescend(), q.getFields(), row -> {
+                    try {
+                        writer.write(row);
+                        rows[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        } else {
+            daoRouter.get(q.getDataset()).stream(q.getDataset(), q.getChromosome(), q.getPositionStart(),
+                                                 q.getPositionEnd(), q.getLimit(), q.getSkip(), q.getCursor(),
+                                                 q.getFilter(), q.getSortBy(), q.getDescend(), q.getAnnot(), v -> {
+                    try {
+                        writer.write(v);
+                        rows[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.dao.SummStatsDao;
+import au.org.garvan.ssvs.core.dao.SummStatsDaoRouter;
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.DensityBin;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Region counts from per-chromosome cumulative counts over fixed size position bins.
+ * Only the two partially covered edge bins of a region are counted in the database, so the cost of a count
+ * doesn't depend on the region size.
+ * <p>
+ * The index of a dataset is built in background on its first count and dropped by {@link #invalidate(DatasetID)}
+ * when the dataset is reloaded; exact counts are used meanwhile. <i>countIndex.binSize</i>=0 turns it off.
+ * <p>
+ * The same cumulative counts answer density queries whose bin size is a multiple of the index bin, see
+ * {@link #density(DatasetID, Chromosome, int, int, int)}.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class CountIndex {
+
+    @Inject
+    private SummStatsDaoRouter daoRouter;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private int binSize;
+    private final Map<DatasetID, CompletableFuture<Map<Chromosome, long[]>>> indexes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        binSize = ReadConfig.getInt("countIndex.binSize", 100000);
+    }
+
+    public long count(DatasetID dataset, Chromosome chr, int start, int end) {
+        SummStatsDao summStatsDao = daoRouter.get(dataset);
+        long[] cumulative = (binSize > 0) ? get(dataset, chr) : null;
+        if (cumulative == null)
+            return summStatsDao.count(dataset, chr, start, end, null);
+        return count(summStatsDao, cumulative, dataset, chr, start, end);
+    }
+
+    /**
+     * Non empty bins of a density query, or null if the index can't answer it: not built yet, or {@code bin} isn't a
+     * multiple of <i>countIndex.binSize</i>. Only the clipped edge bins of a region may need the database.
+     */
+    public List<DensityBin> density(DatasetID dataset, Chromosome chr, int start, int end, int bin) {
+        long[] cumulative = (binSize > 0 && bin % binSize == 0) ? get(dataset, chr) : null;
+        if (cumulative == null)
+            return null;
+
+        SummStatsDao summStatsDao = daoRouter.get(dataset);
+        long extent = (long) (cumulative.length - 1) * binSize - 1; // no variants after the last index bin
+        List<DensityBin> bins = new ArrayList<>();
+        for (long b = start / bin; b <= end / bin && b * bin <= extent; ++b) {
+            int from = (int) Math.max(start, b * bin);
+            int to = (int) Math.min(Math.min(end, extent), b * bin + bin - 1);
+            long n = count(summStatsDao, cumulative, dataset, chr, from, to);
+            if (n > 0)
+                bins.add(DensityBin.of((int) b, bin, start, end, n, null, null));
+        }
+        return bins;
+    }
+
+    private long count(SummStatsDao summStatsDao, long[] cumulative, DatasetID dataset, Chromosome chr, int start, int end) {
+        int first = start / binSize;
+        int last = end / binSize;
+        if (first == last)
+            return (start % binSize == 0 && end % binSize == binSize - 1)
+                ? prefix(cumulative, last + 1) - prefix(cumulative, first)
+                : summStatsDao.count(dataset, chr, start, end, null);
+
+        // whole bins strictly inside the region, then the edges unless they are whole bins too
+        long total = prefix(cumulative, last) - prefix(cumulative, first + 1);
+        total += (start % binSize == 0) ? prefix(cumulative, first + 1) - prefix(cumulative, first)
+                                        : summStatsDao.count(dataset, chr, start, (first + 1) * binSize - 1, null);
+        total += (end % binSize == binSize - 1) ? prefix(cumulative, last + 1) - prefix(cumulative, last)
+                                                : summStatsDao.count(dataset, chr, last * binSize, end, null);
+        return total;
+    }
+
+    public void invalidate(DatasetID dataset) {
+        indexes.remove(dataset);
+    }
+
+    /**
+     * Cumulative counts of a chromosome or null if the index isn't ready yet.
+     */
+    private long[] get(DatasetID dataset, Chromosome chr) {
+        CompletableFuture<Map<Chromosome, long[]>> index =
+            indexes.computeIfAbsent(dataset, d -> CompletableFuture.supplyAsync(() -> build(d), executor));
+        if (!index.isDone())
+            return null;
+        if (index.isCompletedExceptionally()) {
+            indexes.remove(dataset, index); // retry with the next count
+            return null;
+        }
+        return index.join().get(chr);
+    }
+
+    private Map<Chromosome, long[]> build(DatasetID dataset) {
+        SummStatsDao summStatsDao = daoRouter.get(dataset);
+        Map<Chromosome, long[]> index = new EnumMap<>(Chromosome.class);
+        for (Chromosome chr : Chromosome.values()) {
+            long[] bins = summStatsDao.binCounts(dataset, chr, binSize);
+            long[] cumulative = new long[bins.length + 1];
+            for (int i = 0; i < bins.length; ++i)
+                cumulative[i + 1] = cumulative[i] + bins[i];
+            index.put(chr, cumulative);
+        }
+        return index;
+    }
+
+    /**
+     * Number of variants in bins [0, bin).
+     */
+    private static long prefix(long[] cumulative, int bin) {
+        return cumulative[Math.min(bin, cumulative.length - 1)];
+    }
+}
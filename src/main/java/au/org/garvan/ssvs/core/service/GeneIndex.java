@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.Region;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gene symbol to loci, so a <i>gene</i> query becomes an ordinary region query, see {@link #resolve(CoreQuery)}.
+ * <p>
+ * Loci come from the local annotation file <i>geneIndex.file.DATASET</i> or <i>geneIndex.file</i> (datasets on
+ * different references need their own): tab separated gene symbol, chromosome, start and end (1-based, inclusive),
+ * lines starting with '#' and further columns are ignored. Files are read on deployment, a gene listed more than once
+ * (e.g. pseudoautosomal on X and Y) keeps all of its loci, overlapping ones merged. Symbols match case insensitively.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class GeneIndex {
+
+    private final Map<String, Map<String, List<Region>>> indexes = new ConcurrentHashMap<>(); // by file
+
+    public void preload(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        for (DatasetID dataset : DatasetID.values())
+            index(dataset);
+    }
+
+    /**
+     * Replaces the region of a query with the loci of its gene: one locus becomes chromosome, start and end, several
+     * become ranges. An unknown gene leaves the query without a region, validation reports it.
+     */
+    public void resolve(CoreQuery q) {
+        if (q.getGene() == null)
+            return;
+
+        List<Region> loci = loci(q.getDataset(), q.getGene());
+        q.setChromosome(null);
+        q.setPositionStart(null);
+        q.setPositionEnd(null);
+        q.setRanges(null);
+        if (loci.size() == 1) {
+            q.setChromosome(loci.get(0).getChromosome());
+            q.setPositionStart(loci.get(0).getPositionStart());
+            q.setPositionEnd(loci.get(0).getPositionEnd());
+        } else if (loci.size() > 1) {
+            q.setRanges(new ArrayList<>(loci));
+        }
+    }
+
+    /**
+     * Loci of a gene in a dataset's annotation, empty if unknown.
+     */
+    public List<Region> loci(DatasetID dataset, String gene) {
+        List<Region> loci = index(dataset).get(gene.toUpperCase());
+        return (loci == null) ? Collections.emptyList() : loci;
+    }
+
+    private Map<String, List<Region>> index(DatasetID dataset) {
+        String file = ReadConfig.getProp("geneIndex.file", dataset, "");
+        if (file.isEmpty())
+            return Collections.emptyMap();
+        return indexes.computeIfAbsent(file, GeneIndex::load);
+    }
+
+    private static Map<String, List<Region>> load(String file) {
+        Map<String, List<Region>> index = new HashMap<>();
+        int skipped = 0;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] cols = line.split("\t");
+                Region locus = (cols.length < 4) ? null : locus(cols[1], cols[2], cols[3]);
+                if (locus == null) {
+                    skipped++;
+                    continue;
+                }
+                add(index.computeIfAbsent(cols[0].trim().toUpperCase(), k -> new ArrayList<>()), locus);
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("Gene index " + file + " not found, gene queries won't resolve");
+            return Collections.emptyMap();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyMap();
+        }
+        System.out.println("Gene index " + file + ": " + index.size() + " genes" +
+                           ((skipped > 0) ? ", " + skipped + " malformed lines skipped" : ""));
+        return index;
+    }
+
+    private static Region locus(String chr, String start, String end) {
+        String c = chr.trim();
+        if (c.regionMatches(true, 0, "chr", 0, 3))
+            c = c.substring(3);
+        if (c.equalsIgnoreCase("M"))
+            c = "MT";
+        Chromosome chromosome = Chromosome.fromString(c);
+        try {
+            int from = Integer.parseInt(start.trim());
+            int to = Integer.parseInt(end.trim());
+            return (chromosome == null || from < 0 || to < from) ? null : new Region(chromosome, from, to);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a locus, merged with one it overlaps on the same chromosome.
+     */
+    private static void add(List<Region> loci, Region locus) {
+        for (Region r : loci) {
+            if (r.getChromosome() == locus.getChromosome() && locus.getPositionStart() <= r.getPositionEnd() &&
+                r.getPositionStart() <= locus.getPositionEnd()) {
+                r.setPositionStart(Math.min(r.getPositionStart(), locus.getPositionStart()));
+                r.setPositionEnd(Math.max(r.getPositionEnd(), locus.getPositionEnd()));
+                return;
+            }
+        }
+        loci.add(locus);
+    }
+}
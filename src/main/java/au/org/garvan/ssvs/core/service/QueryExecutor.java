@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.Error;
+import au.org.garvan.ssvs.core.entity.Region;
+import au.org.garvan.ssvs.core.util.Deadline;
+import au.org.garvan.ssvs.core.util.Metrics;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs queries off the HTTP worker threads, in two bounded lanes so slow region scans can't hold up beacon and small
+ * region lookups. A full lane answers 503 with Retry-After at once, a query running past its lane's timeout is
+ * cancelled and answered 503 as well; the DAOs see the same {@link Deadline}, so the statement stops in the store too.
+ * <p>
+ * Lanes are the managed executors <i>executor.cheap</i> and <i>executor.expensive</i> (JNDI names, sized in
+ * standalone.xml), the default managed executor stands in for a missing one. Timeouts are
+ * <i>executor.cheap.timeoutMs</i> and <i>executor.expensive.timeoutMs</i>, <i>executor.cheapSpan</i> is the widest
+ * region (bp) still cheap.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class QueryExecutor {
+
+    public enum Lane { CHEAP, EXPENSIVE }
+
+    @Resource
+    private ManagedExecutorService defaultExecutor;
+
+    private ManagedExecutorService cheap;
+    private ManagedExecutorService expensive;
+    private int cheapTimeoutMs;
+    private int expensiveTimeoutMs;
+    private int cheapSpan;
+    private int retryAfter;
+
+    @PostConstruct
+    public void init() {
+        cheap = lookup("executor.cheap", "java:jboss/ee/concurrency/executor/ssvs-cheap");
+        expensive = lookup("executor.expensive", "java:jboss/ee/concurrency/executor/ssvs-expensive");
+        cheapTimeoutMs = ReadConfig.getInt("executor.cheap.timeoutMs", 5000);
+        expensiveTimeoutMs = ReadConfig.getInt("executor.expensive.timeoutMs", 60000);
+        cheapSpan = ReadConfig.getInt("executor.cheapSpan", 1000000);
+        retryAfter = ReadConfig.getInt("executor.retryAfterSeconds", 5);
+    }
+
+    private ManagedExecutorService lookup(String property, String defaultName) {
+        String name = ReadConfig.getProp().getProperty(property, defaultName);
+        try {
+            return (ManagedExecutorService) new InitialContext().lookup(name);
+        } catch (NamingException e) {
+            System.out.println("Executor " + name + " not found, using the default managed executor");
+            return defaultExecutor;
+        }
+    }
+
+    /**
+     * Beacon lookups, rsID lookups, density counts and narrow regions are cheap, wide regions, batch queries and batch
+     * lookups are not. Ranges of a multi-chromosome query count together.
+     */
+    public Lane lane(CoreQuery q) {
+        if (q.getRegions() != null || q.getKeys() != null)
+            return Lane.EXPENSIVE;
+        if (q.getRanges() != null) {
+            long span = 0;
+            for (Region r : q.getRanges())
+                if (r.getPositionStart() != null && r.getPositionEnd() != null)
+                    span += (long) r.getPositionEnd() - r.getPositionStart();
+            return (span <= cheapSpan) ? Lane.CHEAP : Lane.EXPENSIVE;
+        }
+        if (q.getBeacon() || q.getRsids() != null)
+            return Lane.CHEAP;
+        if (q.getBin() != null && !Boolean.TRUE.equals(q.getBinAf()))
+            return Lane.CHEAP; // density from the count index
+        if (q.getPositionStart() == null || q.getPositionEnd() == null)
+            return Lane.CHEAP; // fails validation
+        return ((long) q.getPositionEnd() - q.getPositionStart() <= cheapSpan) ? Lane.CHEAP : Lane.EXPENSIVE;
+    }
+
+    /**
+     * Resumes {@code response} with what {@code work} returns (an entity or a {@link Response}) on the query's lane.
+     */
+    public void submit(CoreQuery q, AsyncResponse response, Supplier<Object> work) {
+        Lane lane = lane(q);
+        ManagedExecutorService executor = (lane == Lane.CHEAP) ? cheap : expensive;
+        int timeout = (lane == Lane.CHEAP) ? cheapTimeoutMs : expensiveTimeoutMs;
+
+        long submitted = System.nanoTime();
+        long deadline = submitted + TimeUnit.MILLISECONDS.toNanos(timeout); // time in the queue counts
+        Metrics.requestStarted();
+        response.register((CompletionCallback) t -> Metrics.requestFinished());
+
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        response.setTimeoutHandler(r -> {
+            Future<?> f = task.get();
+            if (f != null)
+                f.cancel(true);
+            Metrics.rejected(name(lane), "timeout");
+            r.resume(unavailable("Query timeout", "Query took longer than " + timeout + " ms"));
+        });
+        response.setTimeout(timeout, TimeUnit.MILLISECONDS);
+
+        try {
+            task.set(executor.submit(() -> {
+                Metrics.time("queue", q.getDataset(), q.getAnnot(), Metrics.OK, submitted);
+                Deadline.set(deadline);
+                try {
+                    response.resume(work.get());
+                } catch (Throwable t) {
+                    response.resume(t);
+                } finally {
+                    Deadline.clear();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            System.out.println("Rejected, " + lane + " lane is full");
+            Metrics.rejected(name(lane), "busy");
+            response.resume(unavailable("Server busy", "Too many " + name(lane) + " queries, retry later"));
+        }
+    }
+
+    private static String name(Lane lane) {
+        return lane.toString().toLowerCase();
+    }
+
+    private Response unavailable(String title, String message) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfter)
+            .type(MediaType.APPLICATION_JSON_TYPE)
+            .entity(new Error(title, message))
+            .build();
+    }
+}
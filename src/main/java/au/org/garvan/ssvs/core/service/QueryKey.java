@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.entity.Chromosome;
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.Field;
+import au.org.garvan.ssvs.core.entity.VariantFilter;
+
+import java.util.Objects;
+
+/**
+ * Normalised {@link CoreQuery} fields which affect the result of a query. JWT, format, timing etc. are left out.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public final class QueryKey {
+
+    private final DatasetID dataset;
+    private final Chromosome chromosome;
+    private final Integer start;
+    private final Integer end;
+    private final Integer limit;
+    private final Integer skip;
+    private final String cursor;
+    private final Boolean annot;
+    private final Field sortBy;
+    private final Boolean descend;
+    private final VariantFilter filter;
+    private final int hash;
+
+    private QueryKey(DatasetID dataset, Chromosome chromosome, Integer start, Integer end, Integer limit, Integer skip,
+                     String cursor, Boolean annot, Field sortBy, Boolean descend, VariantFilter filter) {
+        this.dataset = dataset;
+        this.chromosome = chromosome;
+        this.start = start;
+        this.end = end;
+        this.limit = limit;
+        this.skip = skip;
+        this.cursor = cursor;
+        this.annot = annot;
+        this.sortBy = sortBy;
+        this.descend = descend;
+        this.filter = filter;
+        this.hash = Objects.hash(dataset, chromosome, start, end, limit, skip, cursor, annot, sortBy, descend, filter);
+    }
+
+    /**
+     * Key of a page of variants.
+     */
+    public static QueryKey of(CoreQuery q) {
+        Integer skip = (q.getSkip() == null || q.getSkip() < 0) ? null : q.getSkip();
+        Boolean descend = (q.getSortBy() == null) ? null : q.getDescend();
+        String cursor = (q.getCursor() == null) ? null : q.getCursor().encode();
+        return new QueryKey(q.getDataset(), q.getChromosome(), q.getPositionStart(), q.getPositionEnd(), q.getLimit(), skip,
+                            cursor, q.getAnnot(), q.getSortBy(), descend, q.getFilter());
+    }
+
+    /**
+     * Key of a region count, only the region and filters matter.
+     */
+    public static QueryKey count(CoreQuery q) {
+        return new QueryKey(q.getDataset(), q.getChromosome(), q.getPositionStart(), q.getPositionEnd(), null, null,
+                            null, null, null, null, q.getFilter());
+    }
+
+    public DatasetID getDataset() {
+        return dataset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QueryKey)) return false;
+        QueryKey k = (QueryKey) o;
+        return hash == k.hash && dataset == k.dataset && chromosome == k.chromosome && Objects.equals(start, k.start) &&
+            Objects.equals(end, k.end) && Objects.equals(limit, k.limit) && Objects.equals(skip, k.skip) &&
+            Objects.equals(cursor, k.cursor) && Objects.equals(annot, k.annot) && sortBy == k.sortBy &&
+            Objects.equals(descend, k.descend) && Objects.equals(filter, k.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return dataset + ":" + chromosome + ":" + start + "-" + end + ":" + limit + ":" + skip + ":" + cursor + ":" +
+            annot + ":" + sortBy + ":" + descend + ":" + filter;
+    }
+}
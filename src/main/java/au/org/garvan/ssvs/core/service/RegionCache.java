@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.service;
+
+import au.org.garvan.ssvs.core.entity.CacheInfo;
+import au.org.garvan.ssvs.core.entity.CoreQuery;
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import au.org.garvan.ssvs.core.entity.Field;
+import au.org.garvan.ssvs.core.entity.Format;
+import au.org.garvan.ssvs.core.entity.Variant;
+import au.org.garvan.ssvs.core.util.ReadConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Result cache in front of {@link au.org.garvan.ssvs.core.dao.SummStatsDao}. Summary stats are bulk loaded and
+ * never updated in place, so entries only expire by TTL, by size (LRU) or when a dataset is reloaded,
+ * see {@link #invalidate(DatasetID)}.
+ * <p>
+ * Configured by <i>cache.maxMb</i> (0 turns caching off) and <i>cache.ttlMinutes</i>.
+ * <p>
+ * Compressed bodies of streamed responses are kept as well, up to <i>cache.bodyMb</i>, so repeated downloads are
+ * written out without serialising or compressing, see {@link au.org.garvan.ssvs.core.rest.CompressionInterceptor}.
+ * JSON and XML bodies aren't: they echo the caller's query with its JWT and timing, so no two callers get the same
+ * bytes.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+@ApplicationScoped
+public class RegionCache {
+
+    private static final int MAX_COUNTS = 100000;
+
+    private long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private Cache<QueryKey, List<Variant>> pages;
+    private Cache<QueryKey, Long> counts;
+    private long maxBodyBytes;
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private Cache<BodyKey, byte[]> bodies;
+    private final Map<DatasetID, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        maxBytes = ReadConfig.getInt("cache.maxMb", 256) * 1024L * 1024L;
+        int ttl = ReadConfig.getInt("cache.ttlMinutes", 60);
+
+        pages = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((QueryKey k, List<Variant> v) -> weigh(v))
+            .removalListener((RemovalNotification<QueryKey, List<Variant>> n) -> bytes.addAndGet(-weigh(n.getValue())))
+            .expireAfterWrite(ttl, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+        counts = CacheBuilder.newBuilder()
+            .maximumSize(maxBytes > 0 ? MAX_COUNTS : 0)
+            .expireAfterWrite(ttl, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+        maxBodyBytes = ReadConfig.getInt("cache.bodyMb", 64) * 1024L * 1024L;
+        bodies = CacheBuilder.newBuilder()
+            .maximumWeight(maxBodyBytes)
+            .weigher((BodyKey k, byte[] v) -> v.length)
+            .removalListener((RemovalNotification<BodyKey, byte[]> n) -> bodyBytes.addAndGet(-n.getValue().length))
+            .expireAfterWrite(ttl, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Generation of a dataset's entries, bumped by {@link #invalidate(DatasetID)}. A load takes it when it starts and
+     * hands it to the put, so a result read before an invalidation isn't cached after it.
+     */
+    public long generation(DatasetID dataset) {
+        return (dataset == null) ? 0 : generations.computeIfAbsent(dataset, d -> new AtomicLong()).get();
+    }
+
+    public List<Variant> get(QueryKey key) {
+        return pages.getIfPresent(key);
+    }
+
+    public void put(QueryKey key, List<Variant> variants, long generation) {
+        if (maxBytes <= 0 || generation(key.getDataset()) != generation)
+            return;
+        List<Variant> value = Collections.unmodifiableList(variants);
+        bytes.addAndGet(weigh(value));
+        pages.put(key, value);
+        if (generation(key.getDataset()) != generation)
+            pages.asMap().remove(key, value); // invalidated meanwhile
+    }
+
+    public Long getCount(QueryKey key) {
+        return counts.getIfPresent(key);
+    }
+
+    public void putCount(QueryKey key, Long count, long generation) {
+        if (generation(key.getDataset()) != generation)
+            return;
+        counts.put(key, count);
+        if (generation(key.getDataset()) != generation)
+            counts.asMap().remove(key, count);
+    }
+
+    /**
+     * Compressed body of a streamed response in {@code encoding}, null if there is none.
+     */
+    public byte[] getBody(CoreQuery q, String encoding) {
+        return bodies.getIfPresent(new BodyKey(q, encoding));
+    }
+
+    public void putBody(CoreQuery q, String encoding, byte[] body, long generation) {
+        if (maxBodyBytes <= 0 || generation(q.getDataset()) != generation)
+            return;
+        BodyKey key = new BodyKey(q, encoding);
+        bodyBytes.addAndGet(body.length);
+        bodies.put(key, body);
+        if (generation(q.getDataset()) != generation)
+            bodies.asMap().remove(key, body);
+    }
+
+    /**
+     * Drops every entry of a dataset, to be called after the dataset has been reloaded. Loads still running keep
+     * their results out of the cache, see {@link #generation(DatasetID)}.
+     */
+    public void invalidate(DatasetID dataset) {
+        generations.computeIfAbsent(dataset, d -> new AtomicLong()).incrementAndGet();
+        pages.asMap().keySet().removeIf(k -> k.getDataset() == dataset);
+        counts.asMap().keySet().removeIf(k -> k.getDataset() == dataset);
+        bodies.asMap().keySet().removeIf(k -> k.page.getDataset() == dataset);
+    }
+
+    public List<CacheInfo> getInfo() {
+        List<CacheInfo> info = new ArrayList<>(3);
+        info.add(info("pages", pages.size(), pages.stats(), bytes.get(), maxBytes));
+        info.add(info("counts", counts.size(), counts.stats(), null, null));
+        info.add(info("bodies", bodies.size(), bodies.stats(), bodyBytes.get(), maxBodyBytes));
+        return info;
+    }
+
+    private static CacheInfo info(String name, long entries, CacheStats s, Long sizeBytes, Long maxBytes) {
+        return new CacheInfo(name, entries, s.hitCount(), s.missCount(), s.hitRate(), s.evictionCount(), sizeBytes, maxBytes);
+    }
+
+    /**
+     * Rough heap footprint of a page: object headers and fields plus UTF-16 string contents.
+     */
+    private static int weigh(List<Variant> variants) {
+        long size = 64;
+        for (Variant v : variants) {
+            size += 160;
+            for (Field f : Field.values()) {
+                Object value = v.valueOf(f);
+                if (value instanceof String)
+                    size += 40 + 2 * ((String) value).length();
+                else if (value instanceof Number)
+                    size += 16;
+            }
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * A page of a streamed response as sent: format, projection and Content-Encoding on top of {@link QueryKey}.
+     */
+    private static final class BodyKey {
+        private final QueryKey page;
+        private final Format format;
+        private final List<Field> fields;
+        private final String encoding;
+
+        BodyKey(CoreQuery q, String encoding) {
+            this.page = QueryKey.of(q);
+            this.format = q.getFormat();
+            this.fields = q.getFields();
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BodyKey)) return false;
+            BodyKey k = (BodyKey) o;
+            return page.equals(k.page) && format == k.format && Objects.equals(fields, k.fields) && encoding.equals(k.encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(page, format, fields, encoding);
+        }
+    }
+}
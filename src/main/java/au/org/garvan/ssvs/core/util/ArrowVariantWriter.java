@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import au.org.garvan.ssvs.core.entity.Field;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Arrow IPC stream of record batches holding {@link #BATCH_ROWS} rows each. Low cardinality strings are dictionary
+ * encoded, since the stream carries dictionaries ahead of the first batch the batches are kept in (off-heap) Arrow
+ * buffers and written by {@link #end()}. Responses are bounded by maxVariants.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+class ArrowVariantWriter extends VariantWriter {
+
+    static final int BATCH_ROWS = 4096;
+
+    /** Columns repeating a handful of values over a region. */
+    private static final Set<Field> DICTIONARY = EnumSet.of(Field.FIELD02, Field.FIELD12, Field.FIELD26, Field.FIELD27,
+                                                            Field.FIELD28, Field.FIELD29, Field.FIELD30);
+
+    private static final BufferAllocator ROOT = new RootAllocator();
+
+    private final OutputStream os;
+    private final BufferAllocator allocator;
+    private final VectorSchemaRoot root;
+    private final DictionaryEncoding[] encodings;
+    private final List<Map<String, Integer>> dictionaries;
+    private final List<ArrowRecordBatch> batches = new ArrayList<>();
+    private int rows;
+    private boolean closed;
+
+    ArrowVariantWriter(OutputStream os, List<Field> fields) {
+        super(fields);
+        this.os = os;
+        this.allocator = ROOT.newChildAllocator("response", 0, Long.MAX_VALUE);
+        this.encodings = new DictionaryEncoding[fields.size()];
+        this.dictionaries = new ArrayList<>(fields.size());
+
+        List<org.apache.arrow.vector.types.pojo.Field> columns = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            Field f = fields.get(i);
+            if (DICTIONARY.contains(f)) {
+                encodings[i] = new DictionaryEncoding(i, false, new ArrowType.Int(32, true));
+                dictionaries.add(new LinkedHashMap<>());
+            } else {
+                dictionaries.add(null);
+            }
+            // encoded columns hold indices, the writer swaps in the value type of the dictionary
+            ArrowType type = (encodings[i] == null) ? arrowType(f) : encodings[i].getIndexType();
+            columns.add(new org.apache.arrow.vector.types.pojo.Field(f.toString(), new FieldType(true, type, encodings[i]), null));
+        }
+        this.root = VectorSchemaRoot.create(new Schema(columns), allocator);
+        root.allocateNew();
+    }
+
+    private static ArrowType arrowType(Field f) {
+        if (f.getType() == Integer.class)
+            return new ArrowType.Int(32, true);
+        if (f.getType() == Double.class)
+            return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+        if (f.getType() == Float.class)
+            return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+        return new ArrowType.Utf8();
+    }
+
+    @Override
+    protected void writeRow(IntFunction<Object> row) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            FieldVector vector = root.getVector(i);
+            Object value = row.apply(i);
+            if (value == null) {
+                if (vector instanceof BaseFixedWidthVector)
+                    ((BaseFixedWidthVector) vector).setNull(rows);
+                else
+                    ((BaseVariableWidthVector) vector).setNull(rows);
+            } else if (encodings[i] != null) {
+                Map<String, Integer> dictionary = dictionaries.get(i);
+                ((IntVector) vector).setSafe(rows, dictionary.computeIfAbsent(value.toString(), k -> dictionary.size()));
+            } else if (vector instanceof IntVector) {
+                ((IntVector) vector).setSafe(rows, ((Number) value).intValue());
+            } else if (vector instanceof Float8Vector) {
+                ((Float8Vector) vector).setSafe(rows, ((Number) value).doubleValue());
+            } else if (vector instanceof Float4Vector) {
+                ((Float4Vector) vector).setSafe(rows, ((Number) value).floatValue());
+            } else {
+                ((VarCharVector) vector).setSafe(rows, value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (++rows == BATCH_ROWS)
+            unload();
+    }
+
+    private void unload() {
+        root.setRowCount(rows);
+        batches.add(new VectorUnloader(root).getRecordBatch()); // keeps its own references to the buffers
+        root.clear();
+        root.allocateNew();
+        rows = 0;
+    }
+
+    @Override
+    public void end() throws IOException {
+        if (rows > 0)
+            unload();
+
+        DictionaryProvider.MapDictionaryProvider provider = new DictionaryProvider.MapDictionaryProvider();
+        List<VarCharVector> values = new ArrayList<>();
+        try {
+            for (int i = 0; i < fields.size(); i++) {
+                if (encodings[i] == null)
+                    continue;
+                VarCharVector vector = new VarCharVector(fields.get(i).toString(), allocator);
+                values.add(vector);
+                vector.allocateNew();
+                int index = 0;
+                for (String value : dictionaries.get(i).keySet())
+                    vector.setSafe(index++, value.getBytes(StandardCharsets.UTF_8));
+                vector.setValueCount(index);
+                provider.put(new Dictionary(vector, encodings[i]));
+            }
+
+            // closing the Arrow writer releases its dictionary batches, the response stream stays with the container
+            OutputStream unclosed = new FilterOutputStream(os) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            try (ArrowStreamWriter writer = new ArrowStreamWriter(root, provider, Channels.newChannel(unclosed))) {
+                writer.start();
+                VectorLoader loader = new VectorLoader(root);
+                for (ArrowRecordBatch batch : batches) {
+                    loader.load(batch);
+                    writer.writeBatch();
+                }
+                writer.end();
+            }
+        } finally {
+            for (VarCharVector vector : values)
+                vector.close();
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (ArrowRecordBatch batch : batches)
+            batch.close();
+        root.close();
+        allocator.close();
+    }
+}
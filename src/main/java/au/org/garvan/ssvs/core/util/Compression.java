@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-Encoding of responses. Supported are <i>gzip</i> and <i>zstd</i> (when its native library loads), offered in
+ * the order of <i>compression.encodings</i>. Levels are <i>compression.gzipLevel</i> and <i>compression.zstdLevel</i>,
+ * responses shorter than <i>compression.threshold</i> bytes are not compressed.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public final class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String ZSTD = "zstd";
+
+    private static final List<String> encodings = new ArrayList<>();
+    private static final int threshold = ReadConfig.getInt("compression.threshold", 1024);
+    private static final int gzipLevel = ReadConfig.getInt("compression.gzipLevel", 6);
+    private static final int zstdLevel = ReadConfig.getInt("compression.zstdLevel", 3);
+
+    static {
+        for (String e : ReadConfig.getProp().getProperty("compression.encodings", ZSTD + "," + GZIP).split("\\s*,\\s*")) {
+            String encoding = e.trim().toLowerCase();
+            if (encoding.equals(ZSTD) && !zstdLoads())
+                continue;
+            if (encoding.equals(GZIP) || encoding.equals(ZSTD))
+                encodings.add(encoding);
+            else if (!encoding.isEmpty())
+                System.out.println("Unsupported compression: " + encoding);
+        }
+    }
+
+    private Compression() {
+    }
+
+    private static boolean zstdLoads() {
+        try {
+            Native.load();
+            return true;
+        } catch (Throwable t) {
+            System.out.println("zstd is not available: " + t);
+            return false;
+        }
+    }
+
+    public static int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Preferred encoding among those an Accept-Encoding header allows (highest q, then our order), null for identity.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty() || encodings.isEmpty())
+            return null;
+
+        Map<String, Float> q = new HashMap<>();
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            float weight = 1f;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        weight = Float.parseFloat(p.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        weight = 0f;
+                    }
+                }
+            }
+            q.put(coding, weight);
+        }
+
+        String best = null;
+        float bestWeight = 0f;
+        for (String encoding : encodings) {
+            Float weight = q.containsKey(encoding) ? q.get(encoding) : q.get("*");
+            if (weight != null && weight > bestWeight) {
+                best = encoding;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compressing stream over {@code os}, closing it closes {@code os}.
+     */
+    public static OutputStream compress(OutputStream os, String encoding) throws IOException {
+        switch (encoding) {
+            case GZIP:
+                return new GZIPOutputStream(os, 1 << 16) {
+                    {
+                        def.setLevel(gzipLevel);
+                    }
+                };
+            case ZSTD:
+                return new ZstdOutputStream(os, zstdLevel);
+            default:
+                throw new IllegalArgumentException("Unsupported compression: " + encoding);
+        }
+    }
+}
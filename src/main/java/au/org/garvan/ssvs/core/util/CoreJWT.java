@@ -29,54 +29,155 @@ import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
 import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.UrlJwkProvider;
+import com.auth0.jwk.JwkProviderBuilder;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Properties;
 import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * JWT verification against the JWKS of <i>jwtIssuer</i> (or <i>jwksUrl</i>, e.g. a local stub).
+ * <p>
+ * Public keys are cached per kid and refreshed in background every <i>jwt.jwksRefreshMinutes</i>, an unknown kid
+ * is fetched on demand at most 10 times a minute, so keys rotate without a restart; a kid which can't be refreshed
+ * expires after two periods. One immutable verifier is kept per (kid, access value) and rebuilt when the kid's key
+ * changes, and verified tokens are remembered until they expire.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
 public class CoreJWT {
 
-    private static volatile RSAPublicKey pubKey;
-
-    public static RSAPublicKey getRSAPublicKey(String token, String issuer) {
-        RSAPublicKey key = pubKey; // single volatile read
-        if (key == null) {
-            synchronized (CoreJWT.class) {
-                if (pubKey == null) {
-                    try {
-                        // getting pub key from Auth0
-                        JwkProvider provider = new UrlJwkProvider(issuer);
-                        DecodedJWT jwt = JWT.decode(token);
-                        Jwk jwk = provider.get(jwt.getKeyId());  // Get the kid from received JWT token
-                        pubKey = (RSAPublicKey) jwk.getPublicKey();
-                        System.out.println("Public key has been acquired from Auth0");
-                    } catch (JwkException e) {
-                        e.printStackTrace();
-                    }
+    private static final long LEEWAY = 12; // leeway window in seconds
+
+    private static final String issuer;
+    private static final String accessClaim;
+    private static final LoadingCache<String, RSAPublicKey> keys;
+    private static final Cache<String, KeyVerifier> verifiers;
+    private static final Cache<String, Long> verified;  // token and access value -> expiry, ms
+
+    static {
+        Properties p = ReadConfig.getProp();
+        issuer = p.getProperty("jwtIssuer");
+        accessClaim = p.getProperty("jwtAccessClaim");
+        long refresh = ReadConfig.getInt("jwt.jwksRefreshMinutes", 60);
+
+        JwkProvider provider = new JwkProviderBuilder(jwksUrl(p))
+            .cached(false)
+            .rateLimited(10, 1, TimeUnit.MINUTES)
+            .build();
+        verified = CacheBuilder.newBuilder()
+            .maximumSize(ReadConfig.getInt("jwt.cacheSize", 10000))
+            .build();
+        keys = CacheBuilder.newBuilder()
+            .refreshAfterWrite(refresh, TimeUnit.MINUTES)
+            .expireAfterWrite(2 * refresh, TimeUnit.MINUTES) // a failed refresh keeps the old key until then
+            .removalListener(n -> verified.invalidateAll()) // tokens are checked against refreshed keys again
+            .build(CacheLoader.asyncReloading(new CacheLoader<String, RSAPublicKey>() {
+                @Override
+                public RSAPublicKey load(String kid) throws JwkException {
+                    RSAPublicKey key = (RSAPublicKey) provider.get(kid).getPublicKey();
+                    System.out.println("Public key " + kid + " has been acquired from " + issuer);
+                    return key;
                 }
-                key = pubKey;
-            }
-        }
-        return key; // non-volatile local read, a tiny bit better performance
+            }, refreshExecutor()));
+        verifiers = CacheBuilder.newBuilder()
+            .expireAfterWrite(refresh, TimeUnit.MINUTES)
+            .build();
     }
 
     public static void verifyJWT(String token, String jwtAccessValue) throws JWTVerificationException {
-        Properties p = ReadConfig.getProp();
-        String issuer = p.getProperty("jwtIssuer");
-        RSAPublicKey publicKey = getRSAPublicKey(token, issuer);
-        Algorithm algorithm = Algorithm.RSA256(publicKey, null);
+        String tokenKey = jwtAccessValue + " " + token;
+        Long expiry = verified.getIfPresent(tokenKey);
+        if (expiry != null && System.currentTimeMillis() <= expiry)
+            return;
+
+        DecodedJWT jwt = JWT.decode(token);
+        verifier(jwt.getKeyId(), jwtAccessValue).verify(jwt);
+
+        if (jwt.getExpiresAt() != null)
+            verified.put(tokenKey, jwt.getExpiresAt().getTime() + LEEWAY * 1000);
+    }
+
+    /**
+     * Verifier of the kid's current public key: a verifier built for a key which has been refreshed since is replaced.
+     */
+    private static JWTVerifier verifier(String kid, String jwtAccessValue) throws JWTVerificationException {
+        RSAPublicKey key = publicKey(kid);
+        String cacheKey = kid + " " + jwtAccessValue;
+        KeyVerifier cached = verifiers.getIfPresent(cacheKey);
+        if (cached != null && cached.key == key)
+            return cached.verifier;
 
-        // verify
         JWTVerifier verifier = JWT
-            .require(algorithm)
+            .require(Algorithm.RSA256(key, null))
             .withIssuer(issuer)
-            .withArrayClaim(p.getProperty("jwtAccessClaim"), jwtAccessValue)
-            .acceptLeeway(12) // leeway window in seconds
+            .withArrayClaim(accessClaim, jwtAccessValue)
+            .acceptLeeway(LEEWAY)
             .build();
-        verifier.verify(token);
+        verifiers.put(cacheKey, new KeyVerifier(key, verifier));
+        return verifier;
+    }
+
+    private static final class KeyVerifier {
+        final RSAPublicKey key;
+        final JWTVerifier verifier;
+
+        KeyVerifier(RSAPublicKey key, JWTVerifier verifier) {
+            this.key = key;
+            this.verifier = verifier;
+        }
+    }
+
+    /**
+     * The container's default managed executor, refreshes run on the calling thread without one (outside of a
+     * container).
+     */
+    private static Executor refreshExecutor() {
+        try {
+            return (ManagedExecutorService) new InitialContext().lookup("java:comp/DefaultManagedExecutorService");
+        } catch (NamingException e) {
+            System.out.println("No managed executor, JWKS keys are refreshed on the calling thread");
+            return MoreExecutors.directExecutor();
+        }
+    }
+
+    private static RSAPublicKey publicKey(String kid) throws JWTVerificationException {
+        if (kid == null)
+            throw new JWTVerificationException("Token has no key id");
+        try {
+            return keys.get(kid);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            e.printStackTrace();
+            throw new JWTVerificationException("Can't get public key " + kid, e.getCause());
+        }
+    }
+
+    private static URL jwksUrl(Properties p) {
+        String url = p.getProperty("jwksUrl");
+        if (url == null)
+            url = p.getProperty("jwtIssuer").replaceAll("/$", "") + "/.well-known/jwks.json";
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid JWKS url " + url, e);
+        }
     }
 }
\ No newline at end of file
@@ -42,7 +42,7 @@ import java.util.Map;
 public class CoreQueryUtils {
 
     private static final Map<Reference, String> chromMapping = new HashMap<>();
-    private static final int MAX_VARIANTS = 10000;
+    private static final int MAX_VARIANTS = 10000; // default, can be overridden per dataset with maxVariants[.DATASET]
 
     static {
         chromMapping.put(Reference.HG38, "GRCh38");
@@ -85,21 +85,18 @@ public class CoreQueryUtils {
     }
 
     /**
-     * Generate a canonical allele string.
+     * Generate a canonical allele string, bases of any length as stored in REF/ALT.
      *
      * @param allele denormalized allele
-     * @return normalized allele
+     * @return normalized allele, null if missing or not a base sequence
      */
     private static String normalizeAllele(String allele) {
-        if (allele == null || allele.isEmpty()) {
+        if (allele == null || allele.trim().isEmpty()) {
             return null;
         }
 
-        String res = allele.toUpperCase();
-        if (res.equals("DEL") || res.equals("INS")) {
-            return res.substring(0, 1);
-        }
-        if (Pattern.matches("([D,I])|([A,C,T,G]+)", res)) {
+        String res = allele.trim().toUpperCase();
+        if (Pattern.matches("[ACGTN]+", res)) {
             return res;
         }
 
@@ -142,25 +139,227 @@ public class CoreQueryUtils {
         return null;
     }
 
+    /**
+     * Extracts a bearer token from an Authorization header.
+     */
+    public static String getJwt(String authz) {
+        return (authz != null && authz.startsWith("Bearer")) ? authz.substring("Bearer".length()).trim() : null;
+    }
+
+    /**
+     * Max number of variants returned by one query for a dataset.
+     */
+    public static int maxVariants(DatasetID dataset) {
+        return ReadConfig.getInt("maxVariants", dataset, MAX_VARIANTS);
+    }
+
     /**
      * Obtains a canonical query object.
      */
     public static CoreQuery getCoreQuery(String dataset, String chromosome, Integer position_start, Integer position_end,
-                                         String alt, String ref, Integer limit, Integer skip, Boolean annot, String sortBy,
-                                         Boolean descend, Boolean count, Boolean beacon, String authz) {
+                                         String alt, String ref, Integer limit, Integer skip, String cursor, Boolean annot, String sortBy,
+                                         Boolean descend, Boolean count, Boolean beacon, Format format, String authz) {
         DatasetID datasetId = DatasetID.fromString(dataset);
         Chromosome c = normalizeChromosome(chromosome);
         Field sortField = normalizeSortBy(sortBy);
-        Integer lim = (limit == null || limit < 0 || limit > MAX_VARIANTS) ? MAX_VARIANTS : limit; // production limits
+        int maxVariants = maxVariants(datasetId);
+        Integer lim = (limit == null || limit < 0 || limit > maxVariants) ? maxVariants : limit; // production limits
+        Cursor after = (cursor == null || cursor.isEmpty()) ? null : Cursor.decode(cursor);
         Boolean desc = (descend == null) ? false : descend;
         Boolean cnt = (count == null) ? false : count;
         Boolean annotations = (annot == null) ? false : annot;
         Boolean bcn = (beacon == null) ? false : beacon;
-        Allele aa = (alt == null) ? Allele.None : Allele.fromString(alt);
-        Allele ra = (ref == null) ? Allele.None : Allele.fromString(ref);
-        String jwtFinal = (authz != null && authz.startsWith("Bearer")) ? authz.substring("Bearer".length()).trim() : null;
+        Integer end = (position_end == null && (bcn || alt != null)) ? position_start : position_end; // beacon and variant lookups ask for a single position
+        Format fmt = (format == null) ? Format.JSON : format;
+        String aa = normalizeAllele(alt);
+        String ra = normalizeAllele(ref);
+        String jwtFinal = getJwt(authz);
+
+        return new CoreQuery(datasetId, c, position_start, end, lim, skip, after, annotations, sortField, desc, cnt, aa, ra, bcn, fmt, jwtFinal);
+    }
+
+    /**
+     * Normalises regions of a batch query, a region with an unknown chromosome keeps it null.
+     */
+    public static List<Region> getRegions(List<POSTParamsJaxBean.RegionParam> params) {
+        if (params == null)
+            return null;
+        List<Region> regions = new ArrayList<>(params.size());
+        for (POSTParamsJaxBean.RegionParam p : params)
+            regions.add(new Region(normalizeChromosome(p.chromosome), p.positionStart, p.positionEnd));
+        return regions;
+    }
+
+    /**
+     * Normalises keys of a batch lookup, <b>v</b> is split into chromosome, position, ref and alt. What can't be parsed
+     * is left null and fails validation.
+     */
+    public static List<VariantKey> getVariantKeys(List<POSTParamsJaxBean.VariantParam> params) {
+        if (params == null)
+            return null;
+        List<VariantKey> keys = new ArrayList<>(params.size());
+        for (POSTParamsJaxBean.VariantParam p : params) {
+            if (p.v == null) {
+                keys.add(new VariantKey(normalizeChromosome(p.chromosome), p.position, normalizeAllele(p.ref),
+                                        normalizeAllele(p.alt)));
+                continue;
+            }
+            String[] parts = p.v.trim().split("-");
+            if (parts.length != 4) {
+                keys.add(new VariantKey(null, null, null, null));
+                continue;
+            }
+            keys.add(new VariantKey(normalizeChromosome(parts[0]), getPosition(parts[1]), normalizeAllele(parts[2]),
+                                    normalizeAllele(parts[3])));
+        }
+        return keys;
+    }
+
+    /**
+     * Ranges of a multi-chromosome query, null for a query of one chromosome. {@code chr} is a comma separated list of
+     * chromosomes or <i>all</i>; {@code start} and {@code end} are lists as long as that, single positions applying to
+     * every chromosome, or missing for whole chromosomes. What can't be parsed is left null and fails validation.
+     */
+    public static List<Region> getRanges(String chr, String start, String end) {
+        if (chr == null || (!chr.contains(",") && !chr.trim().equalsIgnoreCase("all")))
+            return null;
+
+        Chromosome[] chrs = chr.trim().equalsIgnoreCase("all") ? Chromosome.values() : csvStrToChr(chr.trim());
+        if (chrs == null)
+            return Collections.singletonList(new Region(null, null, null));
+        int[] starts = positions(start, chrs.length, 0);
+        int[] ends = positions(end, chrs.length, Integer.MAX_VALUE);
+        List<Region> ranges = new ArrayList<>(chrs.length);
+        for (int i = 0; i < chrs.length; i++)
+            ranges.add(new Region(chrs[i], (starts == null) ? null : starts[i], (ends == null) ? null : ends[i]));
+        return ranges;
+    }
+
+    /**
+     * Single position of a one chromosome query, null if missing or not a number.
+     */
+    public static Integer getPosition(String pos) {
+        int[] p = (pos == null) ? null : csvStrToInt(pos.trim());
+        return (p == null || p.length != 1) ? null : p[0];
+    }
+
+    private static int[] positions(String csv, int n, int whole) {
+        int[] p = new int[n];
+        if (csv == null || csv.trim().isEmpty()) {
+            Arrays.fill(p, whole);
+            return p;
+        }
+        int[] parsed = csvStrToInt(csv.trim());
+        if (parsed != null && parsed.length == 1)
+            Arrays.fill(p, parsed[0]);
+        else if (parsed != null && parsed.length == n)
+            p = parsed;
+        else
+            return null;
+        return p;
+    }
+
+    /**
+     * Normalises variant filters, null if there are none. A filter which can't be parsed is marked
+     * {@link VariantFilter#malformed()}.
+     */
+    public static VariantFilter getFilter(FilterParams params) {
+        return getFilter(params, null, null);
+    }
+
+    /**
+     * Variant filters plus the alleles of a query, which are matched exactly and pushed down with the rest.
+     */
+    public static VariantFilter getFilter(FilterParams params, String ref, String alt) {
+        VariantFilter filter = new VariantFilter();
+        String[] alleles = {ref, alt};
+        String[] names = {"ref", "alt"};
+        for (int i = 0; i < alleles.length; i++)
+            if (alleles[i] != null && !alleles[i].trim().isEmpty() && normalizeAllele(alleles[i]) == null)
+                filter.malformed(names[i] + " should be a sequence of A, C, G, T or N, got " + alleles[i]);
+        filter.setRef(normalizeAllele(ref));
+        filter.setAlt(normalizeAllele(alt));
+        if (params == null)
+            return (filter.matchesAll() && filter.malformed() == null) ? null : filter;
+
+        String[] ranges = {params.af, params.gnomadAF, params.gnomadAF_AFR, params.gnomadAF_AMR, params.gnomadAF_ASJ,
+                           params.gnomadAF_EAS, params.gnomadAF_FIN, params.gnomadAF_NFE, params.gnomadAF_OTHD};
+        Field[] fields = {Field.FIELD08, Field.FIELD18, Field.FIELD19, Field.FIELD20, Field.FIELD21, Field.FIELD22,
+                          Field.FIELD23, Field.FIELD24, Field.FIELD25};
+        for (int i = 0; i < ranges.length; i++) {
+            if (ranges[i] == null || ranges[i].trim().isEmpty())
+                continue;
+            RangeFilter r = toRange(fields[i], ranges[i].trim());
+            if (r == null)
+                filter.malformed(fields[i] + " should be a min:max range, got " + ranges[i]);
+            else
+                filter.getRanges().add(r);
+        }
+        filter.setType(emptyToNull(params.type));
+        filter.setConsequences(emptyToNull(params.consequences));
+        filter.setClinvar(params.clinvar);
+        filter.setGeneSymbol(emptyToNull(params.geneSymbol));
+
+        return (filter.matchesAll() && filter.malformed() == null) ? null : filter;
+    }
+
+    /**
+     * dbSNP ids of a comma separated list in lower case, null if none are asked. An id which isn't <i>rs</i> and a
+     * number stays a null element which fails validation.
+     */
+    public static List<String> getRsids(String csv) {
+        if (csv == null || csv.trim().isEmpty())
+            return null;
+        List<String> rsids = new ArrayList<>();
+        for (String id : csv.trim().split("\\s*,\\s*")) {
+            String rs = id.toLowerCase();
+            rsids.add(Pattern.matches("rs[0-9]{1,10}", rs) && Long.parseLong(rs.substring(2)) <= Integer.MAX_VALUE ? rs : null);
+        }
+        return rsids;
+    }
+
+    /**
+     * Gene symbol as given, null if none.
+     */
+    public static String getGene(String gene) {
+        return (gene == null || gene.trim().isEmpty()) ? null : gene.trim();
+    }
+
+    /**
+     * Columns of a projection, null if none are asked. An unknown column name stays a null element which fails
+     * validation.
+     */
+    public static List<Field> getFields(String csv) {
+        if (csv == null || csv.trim().isEmpty())
+            return null;
+        List<Field> fields = new ArrayList<>();
+        for (String name : csv.trim().split("\\s*,\\s*")) {
+            Field f = normalizeSortBy(name);
+            if (f == null || !fields.contains(f))
+                fields.add(f);
+        }
+        return fields;
+    }
+
+    private static RangeFilter toRange(Field field, String range) {
+        int sep = range.indexOf(':');
+        if (sep < 0)
+            return null;
+        try {
+            String min = range.substring(0, sep).trim();
+            String max = range.substring(sep + 1).trim();
+            RangeFilter r = new RangeFilter(field, min.isEmpty() ? null : Double.valueOf(min),
+                                            max.isEmpty() ? null : Double.valueOf(max));
+            if (r.getMin() != null && r.getMax() != null && r.getMin() > r.getMax())
+                return null;
+            return r;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-        return new CoreQuery(datasetId, c, position_start, position_end, lim, skip, annotations, sortField, desc, cnt, aa, ra, bcn, jwtFinal);
+    private static String emptyToNull(String s) {
+        return (s == null || s.trim().isEmpty()) ? null : s.trim();
     }
 
     /*
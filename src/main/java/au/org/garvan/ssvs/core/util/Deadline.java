@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Deadline of the query running on the current thread, set by {@link au.org.garvan.ssvs.core.service.QueryExecutor}.
+ * DAOs turn it into statement and scan timeouts, so a query given up by the REST layer also stops in the store.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Long> deadline = new ThreadLocal<>();
+
+    private Deadline() {
+    }
+
+    /**
+     * @param nanoTime deadline on the {@link System#nanoTime()} scale
+     */
+    public static void set(long nanoTime) {
+        deadline.set(nanoTime);
+    }
+
+    /**
+     * Deadline of the current thread on the {@link System#nanoTime()} scale, null when it has none. Lets work handed to
+     * another thread keep the query's deadline.
+     */
+    public static Long get() {
+        return deadline.get();
+    }
+
+    public static void clear() {
+        deadline.remove();
+    }
+
+    /**
+     * Milliseconds left, at least 1, or null when the thread has no deadline.
+     */
+    public static Integer remainingMs() {
+        Long d = deadline.get();
+        if (d == null)
+            return null;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (d - System.nanoTime()) / 1000000L));
+    }
+
+    /**
+     * Throws when the deadline has passed, for scans which can't be given a timeout up front.
+     */
+    public static void check() {
+        Long d = deadline.get();
+        if (d != null && System.nanoTime() - d > 0)
+            throw new CancellationException("Query deadline exceeded");
+    }
+}
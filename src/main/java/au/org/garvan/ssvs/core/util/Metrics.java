@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import au.org.garvan.ssvs.core.entity.DatasetID;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics in Prometheus text format (0.0.4), see {@link #write(Writer)}.
+ * <p>
+ * Latency of every request stage (normalise, queue, jwt, count, fetch, stream, serialise) is kept per dataset,
+ * <i>annot</i> flag and outcome in an HDR histogram and exported as the Prometheus histogram <i>ssvs_stage_seconds</i>,
+ * so percentiles can be aggregated across servers with {@code histogram_quantile}. Rows per response, active requests
+ * and rejected queries are exported next to it. Everything is cumulative since deployment.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public final class Metrics {
+
+    public static final String OK = "ok";
+    public static final String ERROR = "error";
+    public static final String DENIED = "denied";
+    public static final String ABORTED = "aborted";
+
+    // bucket bounds, latencies in microseconds
+    private static final long[] LATENCY_BUCKETS = {500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+                                                   1000000, 2500000, 5000000, 10000000, 30000000, 60000000};
+    private static final long[] ROW_BUCKETS = {0, 1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private static final Map<String, Series> stages = new ConcurrentHashMap<>();
+    private static final Map<String, Series> rows = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+    private static final AtomicInteger active = new AtomicInteger();
+
+    private Metrics() {
+    }
+
+    /**
+     * Records a stage which started at {@code startNanos} ({@link System#nanoTime()}) and has just finished.
+     */
+    public static void time(String stage, DatasetID dataset, Boolean annot, String outcome, long startNanos) {
+        long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+        String labels = "stage=\"" + stage + "\"," + labels(dataset, annot) + ",outcome=\"" + outcome + "\"";
+        stages.computeIfAbsent(labels, k -> new Series()).record(micros);
+    }
+
+    /**
+     * Records the number of rows of one response.
+     */
+    public static void rows(DatasetID dataset, Boolean annot, long count) {
+        rows.computeIfAbsent(labels(dataset, annot), k -> new Series()).record(count);
+    }
+
+    public static void requestStarted() {
+        active.incrementAndGet();
+    }
+
+    public static void requestFinished() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Counts a query answered 503, {@code reason} is <i>busy</i> (lane full) or <i>timeout</i>.
+     */
+    public static void rejected(String lane, String reason) {
+        rejected.computeIfAbsent("lane=\"" + lane + "\",reason=\"" + reason + "\"", k -> new LongAdder()).increment();
+    }
+
+    private static String labels(DatasetID dataset, Boolean annot) {
+        return "dataset=\"" + ((dataset == null) ? "none" : dataset.toString().toLowerCase()) + "\",annot=\"" +
+               Boolean.TRUE.equals(annot) + "\"";
+    }
+
+    public static void write(Writer out) throws IOException {
+        out.write("# HELP ssvs_stage_seconds Latency of request stages.\n");
+        out.write("# TYPE ssvs_stage_seconds histogram\n");
+        for (Map.Entry<String, Series> e : new TreeMap<>(stages).entrySet())
+            e.getValue().write(out, "ssvs_stage_seconds", e.getKey(), LATENCY_BUCKETS, 1e6);
+
+        out.write("# HELP ssvs_response_rows Rows per response.\n");
+        out.write("# TYPE ssvs_response_rows histogram\n");
+        for (Map.Entry<String, Series> e : new TreeMap<>(rows).entrySet())
+            e.getValue().write(out, "ssvs_response_rows", e.getKey(), ROW_BUCKETS, 1);
+
+        out.write("# HELP ssvs_active_requests Queries accepted and not answered yet.\n");
+        out.write("# TYPE ssvs_active_requests gauge\n");
+        out.write("ssvs_active_requests " + active.get() + "\n");
+
+        out.write("# HELP ssvs_rejected_total Queries answered 503.\n");
+        out.write("# TYPE ssvs_rejected_total counter\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(rejected).entrySet())
+            out.write("ssvs_rejected_total{" + e.getKey() + "} " + e.getValue().sum() + "\n");
+    }
+
+    /**
+     * HDR histogram (3 significant digits, resized as needed) plus the exact sum.
+     */
+    private static class Series {
+        private final ConcurrentHistogram histogram = new ConcurrentHistogram(3);
+        private final LongAdder sum = new LongAdder();
+
+        void record(long value) {
+            histogram.recordValue(value);
+            sum.add(value);
+        }
+
+        void write(Writer out, String name, String labels, long[] buckets, double unit) throws IOException {
+            Histogram h = histogram.copy();
+            long total = h.getTotalCount();
+            for (long bound : buckets) {
+                long count = h.getCountBetweenValues(0, bound);
+                out.write(name + "_bucket{" + labels + ",le=\"" + format(bound / unit) + "\"} " + count + "\n");
+            }
+            out.write(name + "_bucket{" + labels + ",le=\"+Inf\"} " + total + "\n");
+            out.write(name + "_sum{" + labels + "} " + format(sum.sum() / unit) + "\n");
+            out.write(name + "_count{" + labels + "} " + total + "\n");
+        }
+
+        private static String format(double v) {
+            return (v == Math.rint(v)) ? Long.toString((long) v) : Double.toString(v);
+        }
+    }
+}
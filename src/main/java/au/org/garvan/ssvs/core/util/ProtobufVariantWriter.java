@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import au.org.garvan.ssvs.core.entity.Field;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Length-delimited protobuf {@code Variant} messages as described by conf/variant.proto. The field number of a column
+ * is {@link Field#ordinal()} + 1, so projected rows only differ by missing fields. Messages are encoded by hand, no
+ * generated classes are needed on the server.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+class ProtobufVariantWriter extends VariantWriter {
+
+    private final CodedOutputStream out;
+    private final int[] numbers;
+    private final Object[] values;
+
+    ProtobufVariantWriter(OutputStream os, List<Field> fields) {
+        super(fields);
+        this.out = CodedOutputStream.newInstance(os, 1 << 16);
+        this.numbers = new int[fields.size()];
+        this.values = new Object[fields.size()];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = fields.get(i).ordinal() + 1;
+    }
+
+    @Override
+    protected void writeRow(IntFunction<Object> row) throws IOException {
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            Object value = row.apply(i);
+            values[i] = value;
+            if (value == null)
+                continue;
+            Class<?> type = fields.get(i).getType();
+            if (type == Integer.class)
+                size += CodedOutputStream.computeInt32Size(numbers[i], ((Number) value).intValue());
+            else if (type == Double.class)
+                size += CodedOutputStream.computeDoubleSize(numbers[i], ((Number) value).doubleValue());
+            else if (type == Float.class)
+                size += CodedOutputStream.computeFloatSize(numbers[i], ((Number) value).floatValue());
+            else
+                size += CodedOutputStream.computeStringSize(numbers[i], value.toString());
+        }
+
+        out.writeUInt32NoTag(size);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null)
+                continue;
+            Class<?> type = fields.get(i).getType();
+            if (type == Integer.class)
+                out.writeInt32(numbers[i], ((Number) value).intValue());
+            else if (type == Double.class)
+                out.writeDouble(numbers[i], ((Number) value).doubleValue());
+            else if (type == Float.class)
+                out.writeFloat(numbers[i], ((Number) value).floatValue());
+            else
+                out.writeString(numbers[i], value.toString());
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+}
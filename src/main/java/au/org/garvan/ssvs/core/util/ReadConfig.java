@@ -25,6 +25,8 @@
 
 package au.org.garvan.ssvs.core.util;
 
+import au.org.garvan.ssvs.core.entity.DatasetID;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
@@ -52,10 +54,38 @@ public class ReadConfig {
             System.out.println("Can't read properties from " + propFileName + ". Setting up Kudu Master as localhost:7051");
             p.setProperty("kuduMaster","localhost:7051");
         }
+        // -Dvsal.name=value overrides a property of the file, e.g. to run outside of the container
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith("vsal."))
+                p.setProperty(name.substring("vsal.".length()), System.getProperty(name));
         return p;
     }
 
     public static Properties getProp() {
         return prop;
     }
+
+    /**
+     * Reads a per-dataset property: {@code name.DATASET} takes precedence over plain {@code name}.
+     */
+    public static String getProp(String name, DatasetID dataset, String defaultValue) {
+        String value = (dataset != null) ? prop.getProperty(name + "." + dataset.toString()) : null;
+        if (value == null)
+            value = prop.getProperty(name, defaultValue);
+        return (value != null) ? value.trim() : null;
+    }
+
+    public static int getInt(String name, DatasetID dataset, int defaultValue) {
+        String value = getProp(name, dataset, Integer.toString(defaultValue));
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value of " + name + ": " + value + ". Using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        return getInt(name, null, defaultValue);
+    }
 }
\ No newline at end of file
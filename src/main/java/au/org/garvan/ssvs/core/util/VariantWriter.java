@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.util;
+
+import au.org.garvan.ssvs.core.entity.Field;
+import au.org.garvan.ssvs.core.entity.Format;
+import au.org.garvan.ssvs.core.entity.Variant;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Row by row writer of streamed responses. Text formats write each row as it comes, {@link Format#ARROW} buffers
+ * columns until {@link #end()}.
+ *
+ * @author Dmitry Degrave
+ * @version 1.0
+ */
+public abstract class VariantWriter {
+
+    /** Columns of the short (annot=false) form, same as {@link au.org.garvan.ssvs.core.entity.V}. */
+    public static final List<Field> SHORT_FIELDS = Collections.unmodifiableList(Arrays.asList(
+        Field.FIELD01, Field.FIELD02, Field.FIELD03, Field.FIELD06, Field.FIELD08, Field.FIELD10, Field.FIELD11));
+    public static final List<Field> ALL_FIELDS = Collections.unmodifiableList(Arrays.asList(Field.values()));
+
+    protected final List<Field> fields;
+
+    protected VariantWriter(List<Field> fields) {
+        this.fields = fields;
+    }
+
+    public static VariantWriter create(Format format, boolean annot, OutputStream os) {
+        return create(format, annot ? ALL_FIELDS : SHORT_FIELDS, os);
+    }
+
+    /**
+     * Writer of projected rows, see {@link #write(Object[])}.
+     */
+    public static VariantWriter create(Format format, List<Field> fields, OutputStream os) {
+        switch (format) {
+            case NDJSON:   return new NdjsonWriter(os, fields);
+            case TSV:      return new TsvWriter(os, fields);
+            case PROTOBUF: return new ProtobufVariantWriter(os, fields);
+            case ARROW:    return new ArrowVariantWriter(os, fields);
+            default:       throw new IllegalArgumentException("Not a streaming format: " + format);
+        }
+    }
+
+    public void begin() throws IOException {
+    }
+
+    public void write(Variant v) throws IOException {
+        writeRow(i -> v.valueOf(fields.get(i)));
+    }
+
+    /**
+     * Writes a row holding the values of {@code fields} in their order.
+     */
+    public void write(Object[] row) throws IOException {
+        writeRow(i -> row[i]);
+    }
+
+    protected abstract void writeRow(IntFunction<Object> value) throws IOException;
+
+    /**
+     * Completes the response, the underlying stream is flushed but left open.
+     */
+    public abstract void end() throws IOException;
+
+    /**
+     * Releases what a writer holds when the response is abandoned before {@link #end()}.
+     */
+    public void close() {
+    }
+
+    private abstract static class TextWriter extends VariantWriter {
+        protected final Writer out;
+
+        TextWriter(OutputStream os, List<Field> fields) {
+            super(fields);
+            this.out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static class NdjsonWriter extends TextWriter {
+        private final JsonWriter json;
+
+        NdjsonWriter(OutputStream os, List<Field> fields) {
+            super(os, fields);
+            json = new JsonWriter(out);
+            json.setLenient(true); // one top level object per line
+        }
+
+        @Override
+        protected void writeRow(IntFunction<Object> row) throws IOException {
+            json.beginObject();
+            for (int i = 0; i < fields.size(); ++i) {
+                json.name(fields.get(i).toString());
+                Object value = row.apply(i);
+                if (value == null)
+                    json.nullValue();
+                else if (value instanceof Number)
+                    json.value((Number) value);
+                else
+                    json.value(value.toString());
+            }
+            json.endObject();
+            out.write('\n');
+        }
+    }
+
+    private static class TsvWriter extends TextWriter {
+
+        TsvWriter(OutputStream os, List<Field> fields) {
+            super(os, fields);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            for (int i = 0; i < fields.size(); ++i) {
+                if (i > 0) out.write('\t');
+                out.write(fields.get(i).toString());
+            }
+            out.write('\n');
+        }
+
+        @Override
+        protected void writeRow(IntFunction<Object> row) throws IOException {
+            for (int i = 0; i < fields.size(); ++i) {
+                if (i > 0) out.write('\t');
+                Object value = row.apply(i);
+                if (value != null)
+                    out.write(value.toString());
+            }
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import static org.junit.Assert.assertTrue;
+
+public class CoreResponseTest {
+
+    private static CoreResponse projected() {
+        Row row = new Row();
+        row.put("v", "1-100-A-G");
+        row.put("start", 100);
+        row.put("af", 0.5);
+        row.put("rsid", null);
+        CoreResponse res = new CoreResponse(null, 1L, null);
+        res.setRows(Collections.singletonList(row));
+        return res;
+    }
+
+    @Test
+    public void projectedRowsAreWrittenToXml() throws Exception {
+        Marshaller m = JAXBContext.newInstance(CoreResponse.class).createMarshaller();
+        StringWriter out = new StringWriter();
+        m.marshal(projected(), out);
+
+        String xml = out.toString();
+        assertTrue(xml, xml.contains("<rows><v>1-100-A-G</v><start>100</start><af>0.5</af></rows>"));
+    }
+
+    @Test
+    public void projectedRowsAreObjectsInJson() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(projected());
+        assertTrue(json, json.contains("\"rows\":[{\"v\":\"1-100-A-G\",\"start\":100,\"af\":0.5,\"rsid\":null}]"));
+    }
+}
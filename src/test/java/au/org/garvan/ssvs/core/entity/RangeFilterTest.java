@@ -0,0 +1,48 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeFilterTest {
+
+    @Test
+    public void floatFieldsCompareInFloatPrecision() {
+        // 0.001f widens to 0.0010000000474974513, the stores still see it as 0.001
+        assertTrue(new RangeFilter(Field.FIELD18, null, 0.001).matches(0.001f));
+        assertTrue(new RangeFilter(Field.FIELD18, 0.001, null).matches(0.001f));
+        assertFalse(new RangeFilter(Field.FIELD18, null, 0.001).matches(0.0011f));
+    }
+
+    @Test
+    public void doubleFieldsCompareInDoublePrecision() {
+        assertTrue(new RangeFilter(Field.FIELD08, null, 0.001).matches(0.001));
+        assertFalse(new RangeFilter(Field.FIELD08, null, 0.001).matches((double) 0.001f));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017-2021 Dmitry Degrave
+ * Copyright (c) 2017-2021 Garvan Institute of Medical Research
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.org.garvan.ssvs.core.entity;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VariantFilterTest {
+
+    private static final Map<Field, Object> ROW = new EnumMap<>(Field.class);
+
+    static {
+        ROW.put(Field.FIELD04, "A");
+        ROW.put(Field.FIELD05, "TG");
+        ROW.put(Field.FIELD12, "SNV");
+        ROW.put(Field.FIELD27, "Missense_Variant&splice_region_variant");
+        ROW.put(Field.FIELD28, "BRCA1");
+    }
+
+    @Test
+    public void stringFiltersIgnoreCaseLikeMysql() {
+        VariantFilter filter = new VariantFilter();
+        filter.setType("snv");
+        filter.setGeneSymbol("Brca1");
+        filter.setConsequences("missense_variant");
+        filter.setRef("a");
+        filter.setAlt("tg");
+        assertTrue(filter.matches(ROW::get));
+    }
+
+    @Test
+    public void stringFiltersStillHaveToMatch() {
+        VariantFilter filter = new VariantFilter();
+        filter.setGeneSymbol("BRCA2");
+        assertFalse(filter.matches(ROW::get));
+
+        filter = new VariantFilter();
+        filter.setConsequences("STOP_GAINED");
+        assertFalse(filter.matches(ROW::get));
+
+        filter = new VariantFilter();
+        filter.setAlt("T");  // whole allele, not a prefix
+        assertFalse(filter.matches(ROW::get));
+
+        filter = new VariantFilter();
+        filter.setType("snv");
+        assertFalse(filter.matches(f -> null));
+    }
+}